@@ -2,20 +2,38 @@ package com.lovetropics.lib;
 
 import com.mojang.serialization.Codec;
 import com.mojang.serialization.codecs.RecordCodecBuilder;
+import io.netty.handler.codec.DecoderException;
+import it.unimi.dsi.fastutil.longs.LongIterator;
 import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import net.minecraft.core.BlockPos;
 import net.minecraft.core.SectionPos;
 import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.IntArrayTag;
+import net.minecraft.nbt.Tag;
 import net.minecraft.network.FriendlyByteBuf;
 import net.minecraft.util.RandomSource;
+import net.minecraft.world.entity.Entity;
 import net.minecraft.world.level.ChunkPos;
 import net.minecraft.world.level.LevelHeightAccessor;
+import net.minecraft.world.level.LevelReader;
 import net.minecraft.world.phys.AABB;
 import net.minecraft.world.phys.Vec3;
 
 import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public record BlockBox(BlockPos min, BlockPos max) implements Iterable<BlockPos> {
     public static final Codec<BlockBox> CODEC = RecordCodecBuilder.create(i -> i.group(
@@ -31,6 +49,13 @@ public record BlockBox(BlockPos min, BlockPos max) implements Iterable<BlockPos>
         return new BlockBox(BlockBox.min(a, b), BlockBox.max(a, b));
     }
 
+    public static BlockBox of(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        return new BlockBox(
+                new BlockPos(Math.min(minX, maxX), Math.min(minY, maxY), Math.min(minZ, maxZ)),
+                new BlockPos(Math.max(minX, maxX), Math.max(minY, maxY), Math.max(minZ, maxZ))
+        );
+    }
+
     public static BlockBox ofChunk(LevelHeightAccessor level, int chunkX, int chunkZ) {
         return new BlockBox(
                 new BlockPos(SectionPos.sectionToBlockCoord(chunkX), level.getMinBuildHeight(), SectionPos.sectionToBlockCoord(chunkZ)),
@@ -43,6 +68,11 @@ public record BlockBox(BlockPos min, BlockPos max) implements Iterable<BlockPos>
     }
 
     public static BlockPos min(BlockPos a, BlockPos b) {
+        if (a.getX() <= b.getX() && a.getY() <= b.getY() && a.getZ() <= b.getZ()) {
+            return a.immutable();
+        } else if (b.getX() <= a.getX() && b.getY() <= a.getY() && b.getZ() <= a.getZ()) {
+            return b.immutable();
+        }
         return new BlockPos(
                 Math.min(a.getX(), b.getX()),
                 Math.min(a.getY(), b.getY()),
@@ -51,6 +81,11 @@ public record BlockBox(BlockPos min, BlockPos max) implements Iterable<BlockPos>
     }
 
     public static BlockPos max(BlockPos a, BlockPos b) {
+        if (a.getX() >= b.getX() && a.getY() >= b.getY() && a.getZ() >= b.getZ()) {
+            return a.immutable();
+        } else if (b.getX() >= a.getX() && b.getY() >= a.getY() && b.getZ() >= a.getZ()) {
+            return b.immutable();
+        }
         return new BlockPos(
                 Math.max(a.getX(), b.getX()),
                 Math.max(a.getY(), b.getY()),
@@ -66,7 +101,34 @@ public record BlockBox(BlockPos min, BlockPos max) implements Iterable<BlockPos>
         return BlockBox.of(this.min, max);
     }
 
+    public int minX() {
+        return this.min.getX();
+    }
+
+    public int minY() {
+        return this.min.getY();
+    }
+
+    public int minZ() {
+        return this.min.getZ();
+    }
+
+    public int maxX() {
+        return this.max.getX();
+    }
+
+    public int maxY() {
+        return this.max.getY();
+    }
+
+    public int maxZ() {
+        return this.max.getZ();
+    }
+
     public BlockBox offset(int x, int y, int z) {
+        if (x == 0 && y == 0 && z == 0) {
+            return this;
+        }
         return new BlockBox(
                 this.min.offset(x, y, z),
                 this.max.offset(x, y, z)
@@ -97,6 +159,18 @@ public record BlockBox(BlockPos min, BlockPos max) implements Iterable<BlockPos>
         );
     }
 
+    public int sizeX() {
+        return this.max.getX() - this.min.getX() + 1;
+    }
+
+    public int sizeY() {
+        return this.max.getY() - this.min.getY() + 1;
+    }
+
+    public int sizeZ() {
+        return this.max.getZ() - this.min.getZ() + 1;
+    }
+
     public long volume() {
         long sizeX = this.max.getX() - this.min.getX() + 1;
         long sizeY = this.max.getY() - this.min.getY() + 1;
@@ -112,6 +186,79 @@ public record BlockBox(BlockPos min, BlockPos max) implements Iterable<BlockPos>
         );
     }
 
+    // Picks min(n, volume) distinct positions with Floyd's algorithm, passing each as a packed BlockPos long
+    public int sampleDistinct(RandomSource random, int n, LongConsumer consumer) {
+        long volume = this.volume();
+        int count = (int) Math.min(n, volume);
+        if (count <= 0) {
+            return 0;
+        }
+
+        LongOpenHashSet chosen = new LongOpenHashSet(count);
+        for (long j = volume - count; j < volume; j++) {
+            long index = nextLong(random, j + 1);
+            if (!chosen.add(index)) {
+                index = j;
+                chosen.add(index);
+            }
+            consumer.accept(this.packedPosAt(index));
+        }
+
+        return count;
+    }
+
+    // Draws at most maxAttempts candidates and passes up to n distinct ones matching the filter
+    public int sampleDistinct(RandomSource random, int n, int maxAttempts, LongPredicate filter, LongConsumer consumer) {
+        long volume = this.volume();
+        LongOpenHashSet tried = new LongOpenHashSet((int) Math.max(0, Math.min(maxAttempts, Math.min(volume, 4L * n))));
+
+        int accepted = 0;
+        for (int attempt = 0; attempt < maxAttempts && accepted < n && tried.size() < volume; attempt++) {
+            long index = nextLong(random, volume);
+            if (!tried.add(index)) {
+                continue;
+            }
+            long pos = this.packedPosAt(index);
+            if (filter.test(pos)) {
+                consumer.accept(pos);
+                accepted++;
+            }
+        }
+
+        return accepted;
+    }
+
+    public int sampleDistinctLoaded(LevelReader level, RandomSource random, int n, int maxAttempts, LongConsumer consumer) {
+        return this.sampleDistinct(random, n, maxAttempts, pos -> level.hasChunk(
+                SectionPos.blockToSectionCoord(BlockPos.getX(pos)),
+                SectionPos.blockToSectionCoord(BlockPos.getZ(pos))
+        ), consumer);
+    }
+
+    // Linear indices follow the XZY order used by iteration
+    private long packedPosAt(long index) {
+        long sizeX = this.sizeX();
+        long sizeZ = this.sizeZ();
+        int x = this.min.getX() + (int) (index % sizeX);
+        long layer = index / sizeX;
+        int z = this.min.getZ() + (int) (layer % sizeZ);
+        int y = this.min.getY() + (int) (layer / sizeZ);
+        return BlockPos.asLong(x, y, z);
+    }
+
+    private static long nextLong(RandomSource random, long bound) {
+        if (bound <= Integer.MAX_VALUE) {
+            return random.nextInt((int) bound);
+        }
+        long bits;
+        long value;
+        do {
+            bits = random.nextLong() >>> 1;
+            value = bits % bound;
+        } while (bits - value + (bound - 1) < 0);
+        return value;
+    }
+
     public boolean contains(BlockPos pos) {
         return this.contains(pos.getX(), pos.getY(), pos.getZ());
     }
@@ -134,6 +281,70 @@ public record BlockBox(BlockPos min, BlockPos max) implements Iterable<BlockPos>
                 && x <= max.getX() && y <= max.getY() && z <= max.getZ();
     }
 
+    public int containsAll(double[] xs, double[] ys, double[] zs, BitSet out) {
+        return this.containsAll(xs, ys, zs, xs.length, out);
+    }
+
+    // Sets the bit of every contained position in `out` and returns how many were contained
+    public int containsAll(double[] xs, double[] ys, double[] zs, int count, BitSet out) {
+        double minX = this.min.getX();
+        double minY = this.min.getY();
+        double minZ = this.min.getZ();
+        double maxX = this.max.getX() + 1.0;
+        double maxY = this.max.getY() + 1.0;
+        double maxZ = this.max.getZ() + 1.0;
+
+        out.clear(0, count);
+
+        int contained = 0;
+        for (int base = 0; base < count; base += Long.SIZE) {
+            int end = Math.min(base + Long.SIZE, count);
+
+            long word = 0;
+            for (int i = base; i < end; i++) {
+                double x = xs[i];
+                double y = ys[i];
+                double z = zs[i];
+                boolean inside = x >= minX & y >= minY & z >= minZ & x < maxX & y < maxY & z < maxZ;
+                word |= (inside ? 1L : 0L) << (i - base);
+            }
+
+            contained += Long.bitCount(word);
+            while (word != 0) {
+                out.set(base + Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+
+        return contained;
+    }
+
+    public int containsAll(List<? extends Entity> entities, BitSet out) {
+        double minX = this.min.getX();
+        double minY = this.min.getY();
+        double minZ = this.min.getZ();
+        double maxX = this.max.getX() + 1.0;
+        double maxY = this.max.getY() + 1.0;
+        double maxZ = this.max.getZ() + 1.0;
+
+        int count = entities.size();
+        out.clear(0, count);
+
+        int contained = 0;
+        for (int i = 0; i < count; i++) {
+            Entity entity = entities.get(i);
+            double x = entity.getX();
+            double y = entity.getY();
+            double z = entity.getZ();
+            if (x >= minX & y >= minY & z >= minZ & x < maxX & y < maxY & z < maxZ) {
+                out.set(i);
+                contained++;
+            }
+        }
+
+        return contained;
+    }
+
     public boolean intersects(AABB aabb) {
         return aabb.intersects(this.min.getX(), this.min.getY(), this.min.getZ(), this.max.getX() + 1.0, this.max.getY() + 1.0, this.max.getZ() + 1.0);
     }
@@ -146,12 +357,14 @@ public record BlockBox(BlockPos min, BlockPos max) implements Iterable<BlockPos>
 
     @Nullable
     public BlockBox intersection(BlockBox other) {
-        BlockPos min = max(this.min, other.min);
-        BlockPos max = min(this.max, other.max);
-        if (min.getX() >= max.getX() || min.getY() >= max.getY() || min.getZ() >= max.getZ()) {
+        if (!this.intersects(other)) {
             return null;
         }
-        return new BlockBox(min, max);
+        return new BlockBox(max(this.min, other.min), min(this.max, other.max));
+    }
+
+    public MutableBlockBox mutable() {
+        return MutableBlockBox.of(this);
     }
 
     public AABB asAabb() {
@@ -166,9 +379,105 @@ public record BlockBox(BlockPos min, BlockPos max) implements Iterable<BlockPos>
         return BlockPos.betweenClosed(this.min, this.max).iterator();
     }
 
+    @Override
+    public Spliterator<BlockPos> spliterator() {
+        return new BlockBoxSpliterator(this.min.getX(), this.min.getY(), this.min.getZ(), this.max.getX(), this.max.getY(), this.max.getZ());
+    }
+
+    public Stream<BlockPos> stream() {
+        return StreamSupport.stream(this.spliterator(), false);
+    }
+
+    public Stream<BlockPos> parallelStream() {
+        return StreamSupport.stream(this.spliterator(), true);
+    }
+
+    public void parallelForEach(IntTriConsumer consumer) {
+        this.parallelForEach(ForkJoinPool.commonPool(), consumer);
+    }
+
+    public void parallelForEach(ForkJoinPool pool, IntTriConsumer consumer) {
+        pool.invoke(new BlockBoxSpliterator.ForEachTask(this.min.getX(), this.min.getY(), this.min.getZ(), this.max.getX(), this.max.getY(), this.max.getZ(), consumer));
+    }
+
+    public void forEach(IntTriConsumer consumer) {
+        this.forEach(Order.XZY, consumer);
+    }
+
+    public void forEach(Order order, IntTriConsumer consumer) {
+        this.visit(order, (x, y, z) -> {
+            consumer.accept(x, y, z);
+            return true;
+        });
+    }
+
+    public void forEachMutable(Consumer<BlockPos.MutableBlockPos> consumer) {
+        this.forEachMutable(Order.XZY, consumer);
+    }
+
+    public void forEachMutable(Order order, Consumer<BlockPos.MutableBlockPos> consumer) {
+        BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+        this.visit(order, (x, y, z) -> {
+            consumer.accept(pos.set(x, y, z));
+            return true;
+        });
+    }
+
+    public boolean visitMutable(Order order, Predicate<BlockPos.MutableBlockPos> visitor) {
+        BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+        return this.visit(order, (x, y, z) -> visitor.test(pos.set(x, y, z)));
+    }
+
+    // Returns false if the visitor stopped iteration early
+    public boolean visit(Order order, IntTriPredicate visitor) {
+        int minX = this.min.getX();
+        int minY = this.min.getY();
+        int minZ = this.min.getZ();
+        int maxX = this.max.getX();
+        int maxY = this.max.getY();
+        int maxZ = this.max.getZ();
+
+        switch (order) {
+            case XZY -> {
+                for (int y = minY; y <= maxY; y++) {
+                    for (int z = minZ; z <= maxZ; z++) {
+                        for (int x = minX; x <= maxX; x++) {
+                            if (!visitor.test(x, y, z)) {
+                                return false;
+                            }
+                        }
+                    }
+                }
+            }
+            case YXZ -> {
+                for (int z = minZ; z <= maxZ; z++) {
+                    for (int x = minX; x <= maxX; x++) {
+                        for (int y = minY; y <= maxY; y++) {
+                            if (!visitor.test(x, y, z)) {
+                                return false;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        return true;
+    }
+
     public LongSet asChunks() {
-        LongSet chunks = new LongOpenHashSet();
+        LongSet chunks = new LongOpenHashSet(this.chunkCount());
+        this.forEachChunk(chunks::add);
+        return chunks;
+    }
+
+    public int chunkCount() {
+        int sizeX = SectionPos.blockToSectionCoord(this.max.getX()) - SectionPos.blockToSectionCoord(this.min.getX()) + 1;
+        int sizeZ = SectionPos.blockToSectionCoord(this.max.getZ()) - SectionPos.blockToSectionCoord(this.min.getZ()) + 1;
+        return sizeX * sizeZ;
+    }
 
+    public void forEachChunk(LongConsumer consumer) {
         int minChunkX = SectionPos.blockToSectionCoord(this.min.getX());
         int minChunkZ = SectionPos.blockToSectionCoord(this.min.getZ());
         int maxChunkX = SectionPos.blockToSectionCoord(this.max.getX());
@@ -176,11 +485,79 @@ public record BlockBox(BlockPos min, BlockPos max) implements Iterable<BlockPos>
 
         for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
             for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
-                chunks.add(ChunkPos.asLong(chunkX, chunkZ));
+                consumer.accept(ChunkPos.asLong(chunkX, chunkZ));
             }
         }
+    }
 
-        return chunks;
+    public LongIterator chunks() {
+        int minChunkX = SectionPos.blockToSectionCoord(this.min.getX());
+        int minChunkZ = SectionPos.blockToSectionCoord(this.min.getZ());
+        int maxChunkX = SectionPos.blockToSectionCoord(this.max.getX());
+        int maxChunkZ = SectionPos.blockToSectionCoord(this.max.getZ());
+
+        return new LongIterator() {
+            private int chunkX = minChunkX;
+            private int chunkZ = minChunkZ;
+
+            @Override
+            public boolean hasNext() {
+                return this.chunkZ <= maxChunkZ;
+            }
+
+            @Override
+            public long nextLong() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                long chunk = ChunkPos.asLong(this.chunkX, this.chunkZ);
+                if (++this.chunkX > maxChunkX) {
+                    this.chunkX = minChunkX;
+                    this.chunkZ++;
+                }
+                return chunk;
+            }
+        };
+    }
+
+    // Sections are yielded in X, Z, Y order and only cover the Y range of this box
+    public void forEachSection(LongConsumer consumer) {
+        int minSectionX = SectionPos.blockToSectionCoord(this.min.getX());
+        int minSectionY = SectionPos.blockToSectionCoord(this.min.getY());
+        int minSectionZ = SectionPos.blockToSectionCoord(this.min.getZ());
+        int maxSectionX = SectionPos.blockToSectionCoord(this.max.getX());
+        int maxSectionY = SectionPos.blockToSectionCoord(this.max.getY());
+        int maxSectionZ = SectionPos.blockToSectionCoord(this.max.getZ());
+
+        for (int sectionY = minSectionY; sectionY <= maxSectionY; sectionY++) {
+            for (int sectionZ = minSectionZ; sectionZ <= maxSectionZ; sectionZ++) {
+                for (int sectionX = minSectionX; sectionX <= maxSectionX; sectionX++) {
+                    consumer.accept(SectionPos.asLong(sectionX, sectionY, sectionZ));
+                }
+            }
+        }
+    }
+
+    public void forEachSection(LevelHeightAccessor level, LongConsumer consumer) {
+        BlockBox clipped = this.clipToHeight(level);
+        if (clipped != null) {
+            clipped.forEachSection(consumer);
+        }
+    }
+
+    @Nullable
+    public BlockBox clipToHeight(LevelHeightAccessor level) {
+        int minY = Math.max(this.min.getY(), level.getMinBuildHeight());
+        int maxY = Math.min(this.max.getY(), level.getMaxBuildHeight() - 1);
+        if (minY > maxY) {
+            return null;
+        } else if (minY == this.min.getY() && maxY == this.max.getY()) {
+            return this;
+        }
+        return new BlockBox(
+                new BlockPos(this.min.getX(), minY, this.min.getZ()),
+                new BlockPos(this.max.getX(), maxY, this.max.getZ())
+        );
     }
 
     public CompoundTag write(CompoundTag root) {
@@ -189,7 +566,37 @@ public record BlockBox(BlockPos min, BlockPos max) implements Iterable<BlockPos>
         return root;
     }
 
+    public CompoundTag writeCompact(CompoundTag root) {
+        root.putIntArray("bounds", this.toIntArray());
+        return root;
+    }
+
+    public IntArrayTag toCompactTag() {
+        return new IntArrayTag(this.toIntArray());
+    }
+
+    public int[] toIntArray() {
+        return new int[] {
+                this.min.getX(), this.min.getY(), this.min.getZ(),
+                this.max.getX(), this.max.getY(), this.max.getZ()
+        };
+    }
+
+    public static BlockBox fromIntArray(int[] bounds) {
+        if (bounds.length != 6) {
+            throw new IllegalArgumentException("Expected 6 ints for BlockBox bounds, but got " + bounds.length);
+        }
+        return of(bounds[0], bounds[1], bounds[2], bounds[3], bounds[4], bounds[5]);
+    }
+
+    public static BlockBox read(IntArrayTag tag) {
+        return fromIntArray(tag.getAsIntArray());
+    }
+
     public static BlockBox read(CompoundTag root) {
+        if (root.contains("bounds", Tag.TAG_INT_ARRAY)) {
+            return fromIntArray(root.getIntArray("bounds"));
+        }
         BlockPos min = readBlockPos(root.getCompound("min"));
         BlockPos max = readBlockPos(root.getCompound("max"));
         return new BlockBox(min, max);
@@ -206,6 +613,83 @@ public record BlockBox(BlockPos min, BlockPos max) implements Iterable<BlockPos>
         return new BlockBox(min, max);
     }
 
+    // Writes the minimum corner as zigzag varints followed by the size: 6 to 12 bytes for typical coordinates rather than 16
+    public void writeCompact(FriendlyByteBuf buffer) {
+        this.writeCompact(buffer, 0, 0, 0);
+    }
+
+    public static BlockBox readCompact(FriendlyByteBuf buffer) {
+        return readCompact(buffer, 0, 0, 0);
+    }
+
+    // Boxes are written relative to the minimum corner of the previous box in the list
+    public static void writeList(FriendlyByteBuf buffer, List<BlockBox> boxes) {
+        buffer.writeVarInt(boxes.size());
+
+        int originX = 0;
+        int originY = 0;
+        int originZ = 0;
+        for (BlockBox box : boxes) {
+            box.writeCompact(buffer, originX, originY, originZ);
+            originX = box.minX();
+            originY = box.minY();
+            originZ = box.minZ();
+        }
+    }
+
+    public static List<BlockBox> readList(FriendlyByteBuf buffer) {
+        int size = readSize(buffer);
+        List<BlockBox> boxes = new ArrayList<>(size);
+
+        int originX = 0;
+        int originY = 0;
+        int originZ = 0;
+        for (int i = 0; i < size; i++) {
+            BlockBox box = readCompact(buffer, originX, originY, originZ);
+            boxes.add(box);
+            originX = box.minX();
+            originY = box.minY();
+            originZ = box.minZ();
+        }
+
+        return boxes;
+    }
+
+    private void writeCompact(FriendlyByteBuf buffer, int originX, int originY, int originZ) {
+        buffer.writeVarInt(zigzagEncode(this.minX() - originX));
+        buffer.writeVarInt(zigzagEncode(this.minY() - originY));
+        buffer.writeVarInt(zigzagEncode(this.minZ() - originZ));
+        buffer.writeVarInt(this.sizeX() - 1);
+        buffer.writeVarInt(this.sizeY() - 1);
+        buffer.writeVarInt(this.sizeZ() - 1);
+    }
+
+    private static BlockBox readCompact(FriendlyByteBuf buffer, int originX, int originY, int originZ) {
+        int minX = originX + zigzagDecode(buffer.readVarInt());
+        int minY = originY + zigzagDecode(buffer.readVarInt());
+        int minZ = originZ + zigzagDecode(buffer.readVarInt());
+        int maxX = minX + readSize(buffer);
+        int maxY = minY + readSize(buffer);
+        int maxZ = minZ + readSize(buffer);
+        return new BlockBox(new BlockPos(minX, minY, minZ), new BlockPos(maxX, maxY, maxZ));
+    }
+
+    private static int readSize(FriendlyByteBuf buffer) {
+        int size = buffer.readVarInt();
+        if (size < 0) {
+            throw new DecoderException("Negative BlockBox size: " + size);
+        }
+        return size;
+    }
+
+    private static int zigzagEncode(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int zigzagDecode(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
     private static CompoundTag writeBlockPos(BlockPos pos, CompoundTag root) {
         root.putInt("x", pos.getX());
         root.putInt("y", pos.getY());
@@ -216,4 +700,22 @@ public record BlockBox(BlockPos min, BlockPos max) implements Iterable<BlockPos>
     private static BlockPos readBlockPos(CompoundTag root) {
         return new BlockPos(root.getInt("x"), root.getInt("y"), root.getInt("z"));
     }
+
+    // Axes are listed from the innermost (fastest changing) to the outermost loop
+    public enum Order {
+        // Matches the memory layout of chunk sections
+        XZY,
+        // Walks full columns before moving to the next X/Z position
+        YXZ,
+    }
+
+    @FunctionalInterface
+    public interface IntTriConsumer {
+        void accept(int x, int y, int z);
+    }
+
+    @FunctionalInterface
+    public interface IntTriPredicate {
+        boolean test(int x, int y, int z);
+    }
 }
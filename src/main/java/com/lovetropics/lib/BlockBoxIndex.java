@@ -0,0 +1,183 @@
+package com.lovetropics.lib;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.util.Mth;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.phys.AABB;
+import net.minecraft.world.phys.Vec3;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+// Buckets boxes by every chunk column they cover, keyed the same way as BlockBox.asChunks()
+public final class BlockBoxIndex<T> {
+    private final Long2ObjectMap<ObjectArrayList<Entry<T>>> buckets = new Long2ObjectOpenHashMap<>();
+    private int size;
+
+    public void put(BlockBox box, T value) {
+        Entry<T> entry = new Entry<>(box, value);
+        box.forEachChunk(chunk -> this.buckets.computeIfAbsent(chunk, c -> new ObjectArrayList<>()).add(entry));
+        this.size++;
+    }
+
+    public boolean remove(BlockBox box, T value) {
+        boolean removed = false;
+
+        LongIterator chunks = box.chunks();
+        while (chunks.hasNext()) {
+            long chunk = chunks.nextLong();
+            ObjectArrayList<Entry<T>> bucket = this.buckets.get(chunk);
+            if (bucket != null && removeEntry(bucket, box, value)) {
+                removed = true;
+                if (bucket.isEmpty()) {
+                    this.buckets.remove(chunk);
+                }
+            }
+        }
+
+        if (removed) {
+            this.size--;
+        }
+        return removed;
+    }
+
+    private static <T> boolean removeEntry(ObjectArrayList<Entry<T>> bucket, BlockBox box, T value) {
+        for (int i = 0; i < bucket.size(); i++) {
+            Entry<T> entry = bucket.get(i);
+            if (entry.box.equals(box) && Objects.equals(entry.value, value)) {
+                bucket.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void clear() {
+        this.buckets.clear();
+        this.size = 0;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public void forEachContaining(int x, int y, int z, BiConsumer<BlockBox, T> consumer) {
+        ObjectArrayList<Entry<T>> bucket = this.buckets.get(ChunkPos.asLong(SectionPos.blockToSectionCoord(x), SectionPos.blockToSectionCoord(z)));
+        if (bucket == null) {
+            return;
+        }
+        for (int i = 0, size = bucket.size(); i < size; i++) {
+            Entry<T> entry = bucket.get(i);
+            if (entry.box.contains(x, y, z)) {
+                consumer.accept(entry.box, entry.value);
+            }
+        }
+    }
+
+    @Nullable
+    public T findContaining(int x, int y, int z) {
+        ObjectArrayList<Entry<T>> bucket = this.buckets.get(ChunkPos.asLong(SectionPos.blockToSectionCoord(x), SectionPos.blockToSectionCoord(z)));
+        if (bucket == null) {
+            return null;
+        }
+        for (int i = 0, size = bucket.size(); i < size; i++) {
+            Entry<T> entry = bucket.get(i);
+            if (entry.box.contains(x, y, z)) {
+                return entry.value;
+            }
+        }
+        return null;
+    }
+
+    public void forEachContaining(BlockPos pos, BiConsumer<BlockBox, T> consumer) {
+        this.forEachContaining(pos.getX(), pos.getY(), pos.getZ(), consumer);
+    }
+
+    public void forEachContaining(double x, double y, double z, BiConsumer<BlockBox, T> consumer) {
+        this.forEachContaining(Mth.floor(x), Mth.floor(y), Mth.floor(z), consumer);
+    }
+
+    public void forEachContaining(Vec3 pos, BiConsumer<BlockBox, T> consumer) {
+        this.forEachContaining(pos.x, pos.y, pos.z, consumer);
+    }
+
+    public void forEachIntersecting(BlockBox box, BiConsumer<BlockBox, T> consumer) {
+        this.forEachIntersecting(box.minX(), box.minY(), box.minZ(), box.maxX(), box.maxY(), box.maxZ(), null, consumer);
+    }
+
+    public void forEachIntersecting(AABB aabb, BiConsumer<BlockBox, T> consumer) {
+        this.forEachIntersecting(
+                Mth.floor(aabb.minX), Mth.floor(aabb.minY), Mth.floor(aabb.minZ),
+                Mth.ceil(aabb.maxX) - 1, Mth.ceil(aabb.maxY) - 1, Mth.ceil(aabb.maxZ) - 1,
+                aabb, consumer
+        );
+    }
+
+    private void forEachIntersecting(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, @Nullable AABB aabb, BiConsumer<BlockBox, T> consumer) {
+        int minChunkX = SectionPos.blockToSectionCoord(minX);
+        int minChunkZ = SectionPos.blockToSectionCoord(minZ);
+        int maxChunkX = SectionPos.blockToSectionCoord(maxX);
+        int maxChunkZ = SectionPos.blockToSectionCoord(maxZ);
+
+        for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+            for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+                ObjectArrayList<Entry<T>> bucket = this.buckets.get(ChunkPos.asLong(chunkX, chunkZ));
+                if (bucket == null) {
+                    continue;
+                }
+
+                for (int i = 0, size = bucket.size(); i < size; i++) {
+                    Entry<T> entry = bucket.get(i);
+                    BlockBox box = entry.box;
+                    if (box.maxX() < minX || box.minX() > maxX || box.maxY() < minY || box.minY() > maxY || box.maxZ() < minZ || box.minZ() > maxZ) {
+                        continue;
+                    }
+
+                    // A box spanning several chunks is present in several buckets: only report it from the bucket holding the minimum corner of the overlap
+                    int overlapChunkX = SectionPos.blockToSectionCoord(Math.max(box.minX(), minX));
+                    int overlapChunkZ = SectionPos.blockToSectionCoord(Math.max(box.minZ(), minZ));
+                    if (overlapChunkX != chunkX || overlapChunkZ != chunkZ) {
+                        continue;
+                    }
+
+                    if (aabb == null || box.intersects(aabb)) {
+                        consumer.accept(box, entry.value);
+                    }
+                }
+            }
+        }
+    }
+
+    public List<T> getContaining(BlockPos pos) {
+        List<T> result = new ArrayList<>();
+        this.forEachContaining(pos, (box, value) -> result.add(value));
+        return result;
+    }
+
+    public List<T> getIntersecting(BlockBox box) {
+        List<T> result = new ArrayList<>();
+        this.forEachIntersecting(box, (b, value) -> result.add(value));
+        return result;
+    }
+
+    public List<T> getIntersecting(AABB aabb) {
+        List<T> result = new ArrayList<>();
+        this.forEachIntersecting(aabb, (box, value) -> result.add(value));
+        return result;
+    }
+
+    private record Entry<T>(BlockBox box, T value) {
+    }
+}
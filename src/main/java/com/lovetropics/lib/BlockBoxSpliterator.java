@@ -0,0 +1,179 @@
+package com.lovetropics.lib;
+
+import net.minecraft.core.BlockPos;
+
+import javax.annotation.Nullable;
+import java.util.Spliterator;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+final class BlockBoxSpliterator implements Spliterator<BlockPos> {
+    static final long SPLIT_THRESHOLD = 4096;
+
+    private final int minX;
+    private final int minY;
+    private final int minZ;
+    private int maxX;
+    private int maxY;
+    private int maxZ;
+
+    private int x;
+    private int y;
+    private int z;
+    private long remaining;
+
+    BlockBoxSpliterator(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        this.minX = minX;
+        this.minY = minY;
+        this.minZ = minZ;
+        this.setMax(maxX, maxY, maxZ);
+    }
+
+    private void setMax(int maxX, int maxY, int maxZ) {
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.maxZ = maxZ;
+        this.x = this.minX;
+        this.y = this.minY;
+        this.z = this.minZ;
+        this.remaining = volume(this.minX, this.minY, this.minZ, maxX, maxY, maxZ);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super BlockPos> action) {
+        if (this.remaining <= 0) {
+            return false;
+        }
+
+        action.accept(new BlockPos(this.x, this.y, this.z));
+        this.remaining--;
+
+        if (++this.x > this.maxX) {
+            this.x = this.minX;
+            if (++this.z > this.maxZ) {
+                this.z = this.minZ;
+                this.y++;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super BlockPos> action) {
+        while (this.tryAdvance(action)) {
+        }
+    }
+
+    // Splits the longest axis in half before iteration has begun: this spliterator keeps the lower half as a sub-box
+    @Override
+    @Nullable
+    public Spliterator<BlockPos> trySplit() {
+        long volume = volume(this.minX, this.minY, this.minZ, this.maxX, this.maxY, this.maxZ);
+        if (this.remaining != volume || volume < SPLIT_THRESHOLD) {
+            return null;
+        }
+
+        int sizeX = this.maxX - this.minX;
+        int sizeY = this.maxY - this.minY;
+        int sizeZ = this.maxZ - this.minZ;
+
+        BlockBoxSpliterator upper;
+        if (sizeX >= sizeY && sizeX >= sizeZ) {
+            int mid = this.minX + sizeX / 2;
+            upper = new BlockBoxSpliterator(mid + 1, this.minY, this.minZ, this.maxX, this.maxY, this.maxZ);
+            this.setMax(mid, this.maxY, this.maxZ);
+        } else if (sizeZ >= sizeY) {
+            int mid = this.minZ + sizeZ / 2;
+            upper = new BlockBoxSpliterator(this.minX, this.minY, mid + 1, this.maxX, this.maxY, this.maxZ);
+            this.setMax(this.maxX, this.maxY, mid);
+        } else {
+            int mid = this.minY + sizeY / 2;
+            upper = new BlockBoxSpliterator(this.minX, mid + 1, this.minZ, this.maxX, this.maxY, this.maxZ);
+            this.setMax(this.maxX, mid, this.maxZ);
+        }
+        return upper;
+    }
+
+    @Override
+    public long estimateSize() {
+        return this.remaining;
+    }
+
+    @Override
+    public long getExactSizeIfKnown() {
+        return this.remaining;
+    }
+
+    @Override
+    public int characteristics() {
+        return SIZED | SUBSIZED | DISTINCT | NONNULL | IMMUTABLE;
+    }
+
+    private static long volume(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        return (long) (maxX - minX + 1) * (maxY - minY + 1) * (maxZ - minZ + 1);
+    }
+
+    static final class ForEachTask extends RecursiveAction {
+        private final int minX;
+        private final int minY;
+        private final int minZ;
+        private final int maxX;
+        private final int maxY;
+        private final int maxZ;
+        private final BlockBox.IntTriConsumer consumer;
+
+        ForEachTask(int minX, int minY, int minZ, int maxX, int maxY, int maxZ, BlockBox.IntTriConsumer consumer) {
+            this.minX = minX;
+            this.minY = minY;
+            this.minZ = minZ;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.maxZ = maxZ;
+            this.consumer = consumer;
+        }
+
+        @Override
+        protected void compute() {
+            if (volume(this.minX, this.minY, this.minZ, this.maxX, this.maxY, this.maxZ) < SPLIT_THRESHOLD) {
+                this.computeDirectly();
+                return;
+            }
+
+            int sizeX = this.maxX - this.minX;
+            int sizeY = this.maxY - this.minY;
+            int sizeZ = this.maxZ - this.minZ;
+
+            if (sizeX >= sizeY && sizeX >= sizeZ) {
+                int mid = this.minX + sizeX / 2;
+                invokeAll(
+                        new ForEachTask(this.minX, this.minY, this.minZ, mid, this.maxY, this.maxZ, this.consumer),
+                        new ForEachTask(mid + 1, this.minY, this.minZ, this.maxX, this.maxY, this.maxZ, this.consumer)
+                );
+            } else if (sizeZ >= sizeY) {
+                int mid = this.minZ + sizeZ / 2;
+                invokeAll(
+                        new ForEachTask(this.minX, this.minY, this.minZ, this.maxX, this.maxY, mid, this.consumer),
+                        new ForEachTask(this.minX, this.minY, mid + 1, this.maxX, this.maxY, this.maxZ, this.consumer)
+                );
+            } else {
+                int mid = this.minY + sizeY / 2;
+                invokeAll(
+                        new ForEachTask(this.minX, this.minY, this.minZ, this.maxX, mid, this.maxZ, this.consumer),
+                        new ForEachTask(this.minX, mid + 1, this.minZ, this.maxX, this.maxY, this.maxZ, this.consumer)
+                );
+            }
+        }
+
+        private void computeDirectly() {
+            BlockBox.IntTriConsumer consumer = this.consumer;
+            for (int y = this.minY; y <= this.maxY; y++) {
+                for (int z = this.minZ; z <= this.maxZ; z++) {
+                    for (int x = this.minX; x <= this.maxX; x++) {
+                        consumer.accept(x, y, z);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package com.lovetropics.lib;
+
+import com.google.common.collect.Iterators;
+import com.mojang.serialization.Codec;
+import net.minecraft.core.BlockPos;
+import net.minecraft.util.Mth;
+import net.minecraft.world.phys.Vec3;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+
+// An immutable set of blocks, stored as disjoint boxes
+public final class BlockRegion implements Iterable<BlockPos> {
+    public static final BlockRegion EMPTY = new BlockRegion(List.of());
+
+    public static final Codec<BlockRegion> CODEC = BlockBox.CODEC.listOf().xmap(BlockRegion::of, BlockRegion::boxes);
+
+    private final List<BlockBox> boxes;
+    private final long volume;
+    @Nullable
+    private final BlockBox bounds;
+    private final BlockBoxIndex<BlockBox> index = new BlockBoxIndex<>();
+
+    private BlockRegion(List<BlockBox> boxes) {
+        this.boxes = List.copyOf(boxes);
+
+        long volume = 0;
+        MutableBlockBox bounds = null;
+        for (BlockBox box : this.boxes) {
+            volume += box.volume();
+            bounds = bounds != null ? bounds.include(box) : box.mutable();
+            this.index.put(box, box);
+        }
+
+        this.volume = volume;
+        this.bounds = bounds != null ? bounds.toImmutable() : null;
+    }
+
+    public static BlockRegion of(BlockBox box) {
+        return new BlockRegion(List.of(box));
+    }
+
+    public static BlockRegion of(Collection<BlockBox> boxes) {
+        List<BlockBox> disjoint = new ArrayList<>();
+        BlockBoxIndex<BlockBox> index = new BlockBoxIndex<>();
+        for (BlockBox box : boxes) {
+            addDisjoint(disjoint, index, box);
+        }
+        return new BlockRegion(merge(disjoint));
+    }
+
+    public BlockRegion union(BlockBox box) {
+        if (this.bounds == null) {
+            return of(box);
+        }
+
+        List<BlockBox> remaining = this.subtractFrom(box);
+        if (remaining.isEmpty()) {
+            return this;
+        }
+
+        List<BlockBox> boxes = new ArrayList<>(this.boxes);
+        boxes.addAll(remaining);
+        return new BlockRegion(merge(boxes));
+    }
+
+    public BlockRegion union(BlockRegion region) {
+        if (this.bounds == null) {
+            return region;
+        } else if (region.bounds == null) {
+            return this;
+        }
+
+        List<BlockBox> boxes = new ArrayList<>(this.boxes);
+        for (BlockBox box : region.boxes) {
+            boxes.addAll(this.subtractFrom(box));
+        }
+        return new BlockRegion(merge(boxes));
+    }
+
+    public BlockRegion subtract(BlockBox box) {
+        if (this.bounds == null || !this.bounds.intersects(box)) {
+            return this;
+        }
+
+        List<BlockBox> boxes = new ArrayList<>(this.boxes.size());
+        for (BlockBox existing : this.boxes) {
+            subtract(existing, box, boxes);
+        }
+        return new BlockRegion(merge(boxes));
+    }
+
+    public BlockRegion subtract(BlockRegion region) {
+        if (this.bounds == null || region.bounds == null || !this.bounds.intersects(region.bounds)) {
+            return this;
+        }
+
+        List<BlockBox> boxes = new ArrayList<>(this.boxes.size());
+        for (BlockBox existing : this.boxes) {
+            boxes.addAll(region.subtractFrom(existing));
+        }
+        return new BlockRegion(merge(boxes));
+    }
+
+    public BlockRegion intersect(BlockBox box) {
+        if (this.bounds == null || !this.bounds.intersects(box)) {
+            return EMPTY;
+        }
+
+        List<BlockBox> boxes = new ArrayList<>();
+        this.index.forEachIntersecting(box, (existing, value) -> boxes.add(existing.intersection(box)));
+        return new BlockRegion(merge(boxes));
+    }
+
+    public BlockRegion intersect(BlockRegion region) {
+        if (this.bounds == null || region.bounds == null || !this.bounds.intersects(region.bounds)) {
+            return EMPTY;
+        }
+
+        // Pairwise intersections of two disjoint sets are themselves disjoint
+        List<BlockBox> boxes = new ArrayList<>();
+        for (BlockBox box : region.boxes) {
+            this.index.forEachIntersecting(box, (existing, value) -> boxes.add(existing.intersection(box)));
+        }
+        return new BlockRegion(merge(boxes));
+    }
+
+    public boolean contains(int x, int y, int z) {
+        BlockBox bounds = this.bounds;
+        return bounds != null && bounds.contains(x, y, z) && this.index.findContaining(x, y, z) != null;
+    }
+
+    public boolean contains(BlockPos pos) {
+        return this.contains(pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    public boolean contains(double x, double y, double z) {
+        return this.contains(Mth.floor(x), Mth.floor(y), Mth.floor(z));
+    }
+
+    public boolean contains(Vec3 pos) {
+        return this.contains(pos.x, pos.y, pos.z);
+    }
+
+    public boolean intersects(BlockBox box) {
+        if (this.bounds == null || !this.bounds.intersects(box)) {
+            return false;
+        }
+        return !this.index.getIntersecting(box).isEmpty();
+    }
+
+    public List<BlockBox> boxes() {
+        return this.boxes;
+    }
+
+    @Nullable
+    public BlockBox bounds() {
+        return this.bounds;
+    }
+
+    public long volume() {
+        return this.volume;
+    }
+
+    public boolean isEmpty() {
+        return this.boxes.isEmpty();
+    }
+
+    public void forEach(BlockBox.IntTriConsumer consumer) {
+        for (BlockBox box : this.boxes) {
+            box.forEach(consumer);
+        }
+    }
+
+    @Override
+    public Iterator<BlockPos> iterator() {
+        return Iterators.concat(Iterators.transform(this.boxes.iterator(), BlockBox::iterator));
+    }
+
+    private List<BlockBox> subtractFrom(BlockBox box) {
+        List<BlockBox> pieces = new ArrayList<>();
+        pieces.add(box);
+        for (BlockBox existing : this.index.getIntersecting(box)) {
+            List<BlockBox> next = new ArrayList<>(pieces.size());
+            for (BlockBox piece : pieces) {
+                subtract(piece, existing, next);
+            }
+            pieces = next;
+        }
+        return pieces;
+    }
+
+    private static void addDisjoint(List<BlockBox> boxes, BlockBoxIndex<BlockBox> index, BlockBox box) {
+        List<BlockBox> pieces = new ArrayList<>();
+        pieces.add(box);
+        for (BlockBox existing : index.getIntersecting(box)) {
+            List<BlockBox> next = new ArrayList<>(pieces.size());
+            for (BlockBox piece : pieces) {
+                subtract(piece, existing, next);
+            }
+            pieces = next;
+        }
+        for (BlockBox piece : pieces) {
+            boxes.add(piece);
+            index.put(piece, piece);
+        }
+    }
+
+    // Splits the part of `box` outside of `cut` into at most 6 disjoint slabs
+    private static void subtract(BlockBox box, BlockBox cut, List<BlockBox> result) {
+        if (!box.intersects(cut)) {
+            result.add(box);
+            return;
+        }
+
+        int minX = Math.max(box.minX(), cut.minX());
+        int minY = Math.max(box.minY(), cut.minY());
+        int minZ = Math.max(box.minZ(), cut.minZ());
+        int maxX = Math.min(box.maxX(), cut.maxX());
+        int maxY = Math.min(box.maxY(), cut.maxY());
+        int maxZ = Math.min(box.maxZ(), cut.maxZ());
+
+        if (box.minY() < minY) {
+            result.add(BlockBox.of(box.minX(), box.minY(), box.minZ(), box.maxX(), minY - 1, box.maxZ()));
+        }
+        if (box.maxY() > maxY) {
+            result.add(BlockBox.of(box.minX(), maxY + 1, box.minZ(), box.maxX(), box.maxY(), box.maxZ()));
+        }
+        if (box.minZ() < minZ) {
+            result.add(BlockBox.of(box.minX(), minY, box.minZ(), box.maxX(), maxY, minZ - 1));
+        }
+        if (box.maxZ() > maxZ) {
+            result.add(BlockBox.of(box.minX(), minY, maxZ + 1, box.maxX(), maxY, box.maxZ()));
+        }
+        if (box.minX() < minX) {
+            result.add(BlockBox.of(box.minX(), minY, minZ, minX - 1, maxY, maxZ));
+        }
+        if (box.maxX() > maxX) {
+            result.add(BlockBox.of(maxX + 1, minY, minZ, box.maxX(), maxY, maxZ));
+        }
+    }
+
+    // Greedily joins boxes that share a full face until no more can be joined
+    private static List<BlockBox> merge(List<BlockBox> boxes) {
+        List<BlockBox> result = new ArrayList<>(boxes);
+        boolean merged;
+        do {
+            merged = false;
+            for (int i = 0; i < result.size(); i++) {
+                for (int j = i + 1; j < result.size(); j++) {
+                    BlockBox joined = tryJoin(result.get(i), result.get(j));
+                    if (joined != null) {
+                        result.set(i, joined);
+                        result.remove(j);
+                        j = i;
+                        merged = true;
+                    }
+                }
+            }
+        } while (merged);
+        return result;
+    }
+
+    @Nullable
+    private static BlockBox tryJoin(BlockBox a, BlockBox b) {
+        boolean sameX = a.minX() == b.minX() && a.maxX() == b.maxX();
+        boolean sameY = a.minY() == b.minY() && a.maxY() == b.maxY();
+        boolean sameZ = a.minZ() == b.minZ() && a.maxZ() == b.maxZ();
+
+        if (sameY && sameZ && (a.maxX() + 1 == b.minX() || b.maxX() + 1 == a.minX())
+                || sameX && sameZ && (a.maxY() + 1 == b.minY() || b.maxY() + 1 == a.minY())
+                || sameX && sameY && (a.maxZ() + 1 == b.minZ() || b.maxZ() + 1 == a.minZ())) {
+            return new BlockBox(BlockBox.min(a.min(), b.min()), BlockBox.max(a.max(), b.max()));
+        }
+        return null;
+    }
+
+    // Regions are equal if they cover the same blocks, however those blocks happen to be split into boxes
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof BlockRegion region) || this.volume != region.volume || !Objects.equals(this.bounds, region.bounds)) {
+            return false;
+        }
+
+        // Both sets of boxes are disjoint, so the regions are equal exactly when their overlap covers all of this region
+        long[] overlap = new long[1];
+        for (BlockBox box : this.boxes) {
+            region.index.forEachIntersecting(box, (existing, value) -> overlap[0] += existing.intersection(box).volume());
+        }
+        return overlap[0] == this.volume;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(this.volume) + Objects.hashCode(this.bounds);
+    }
+
+    @Override
+    public String toString() {
+        return "BlockRegion" + this.boxes;
+    }
+}
@@ -0,0 +1,228 @@
+package com.lovetropics.lib;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.world.phys.AABB;
+
+public final class MutableBlockBox {
+    private int minX;
+    private int minY;
+    private int minZ;
+    private int maxX;
+    private int maxY;
+    private int maxZ;
+
+    public MutableBlockBox() {
+    }
+
+    public MutableBlockBox(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        this.set(minX, minY, minZ, maxX, maxY, maxZ);
+    }
+
+    public static MutableBlockBox of(BlockBox box) {
+        return new MutableBlockBox().set(box);
+    }
+
+    public MutableBlockBox set(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        this.minX = Math.min(minX, maxX);
+        this.minY = Math.min(minY, maxY);
+        this.minZ = Math.min(minZ, maxZ);
+        this.maxX = Math.max(minX, maxX);
+        this.maxY = Math.max(minY, maxY);
+        this.maxZ = Math.max(minZ, maxZ);
+        return this;
+    }
+
+    public MutableBlockBox set(BlockBox box) {
+        BlockPos min = box.min();
+        BlockPos max = box.max();
+        this.minX = min.getX();
+        this.minY = min.getY();
+        this.minZ = min.getZ();
+        this.maxX = max.getX();
+        this.maxY = max.getY();
+        this.maxZ = max.getZ();
+        return this;
+    }
+
+    public MutableBlockBox set(MutableBlockBox box) {
+        this.minX = box.minX;
+        this.minY = box.minY;
+        this.minZ = box.minZ;
+        this.maxX = box.maxX;
+        this.maxY = box.maxY;
+        this.maxZ = box.maxZ;
+        return this;
+    }
+
+    public MutableBlockBox set(BlockPos pos) {
+        return this.set(pos.getX(), pos.getY(), pos.getZ(), pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    public int minX() {
+        return this.minX;
+    }
+
+    public int minY() {
+        return this.minY;
+    }
+
+    public int minZ() {
+        return this.minZ;
+    }
+
+    public int maxX() {
+        return this.maxX;
+    }
+
+    public int maxY() {
+        return this.maxY;
+    }
+
+    public int maxZ() {
+        return this.maxZ;
+    }
+
+    public int sizeX() {
+        return this.maxX - this.minX + 1;
+    }
+
+    public int sizeY() {
+        return this.maxY - this.minY + 1;
+    }
+
+    public int sizeZ() {
+        return this.maxZ - this.minZ + 1;
+    }
+
+    public long volume() {
+        return (long) this.sizeX() * this.sizeY() * this.sizeZ();
+    }
+
+    public MutableBlockBox move(int x, int y, int z) {
+        this.minX += x;
+        this.minY += y;
+        this.minZ += z;
+        this.maxX += x;
+        this.maxY += y;
+        this.maxZ += z;
+        return this;
+    }
+
+    public MutableBlockBox inflate(int amount) {
+        return this.inflate(amount, amount, amount);
+    }
+
+    public MutableBlockBox inflate(int x, int y, int z) {
+        return this.set(this.minX - x, this.minY - y, this.minZ - z, this.maxX + x, this.maxY + y, this.maxZ + z);
+    }
+
+    public MutableBlockBox include(int x, int y, int z) {
+        this.minX = Math.min(this.minX, x);
+        this.minY = Math.min(this.minY, y);
+        this.minZ = Math.min(this.minZ, z);
+        this.maxX = Math.max(this.maxX, x);
+        this.maxY = Math.max(this.maxY, y);
+        this.maxZ = Math.max(this.maxZ, z);
+        return this;
+    }
+
+    public MutableBlockBox include(BlockPos pos) {
+        return this.include(pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    public MutableBlockBox include(BlockBox box) {
+        this.include(box.minX(), box.minY(), box.minZ());
+        return this.include(box.maxX(), box.maxY(), box.maxZ());
+    }
+
+    // Returns false and leaves this box unchanged if the two boxes do not intersect
+    public boolean intersect(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        if (!this.intersects(minX, minY, minZ, maxX, maxY, maxZ)) {
+            return false;
+        }
+        this.minX = Math.max(this.minX, minX);
+        this.minY = Math.max(this.minY, minY);
+        this.minZ = Math.max(this.minZ, minZ);
+        this.maxX = Math.min(this.maxX, maxX);
+        this.maxY = Math.min(this.maxY, maxY);
+        this.maxZ = Math.min(this.maxZ, maxZ);
+        return true;
+    }
+
+    public boolean intersect(BlockBox box) {
+        return this.intersect(box.minX(), box.minY(), box.minZ(), box.maxX(), box.maxY(), box.maxZ());
+    }
+
+    public boolean intersect(MutableBlockBox box) {
+        return this.intersect(box.minX, box.minY, box.minZ, box.maxX, box.maxY, box.maxZ);
+    }
+
+    public boolean contains(int x, int y, int z) {
+        return x >= this.minX && y >= this.minY && z >= this.minZ
+                && x <= this.maxX && y <= this.maxY && z <= this.maxZ;
+    }
+
+    public boolean contains(double x, double y, double z) {
+        return x >= this.minX && y >= this.minY && z >= this.minZ
+                && x < this.maxX + 1.0 && y < this.maxY + 1.0 && z < this.maxZ + 1.0;
+    }
+
+    public boolean contains(BlockPos pos) {
+        return this.contains(pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    public boolean intersects(int minX, int minY, int minZ, int maxX, int maxY, int maxZ) {
+        return this.maxX >= minX && this.minX <= maxX
+                && this.maxY >= minY && this.minY <= maxY
+                && this.maxZ >= minZ && this.minZ <= maxZ;
+    }
+
+    public boolean intersects(BlockBox box) {
+        return this.intersects(box.minX(), box.minY(), box.minZ(), box.maxX(), box.maxY(), box.maxZ());
+    }
+
+    public boolean intersects(MutableBlockBox box) {
+        return this.intersects(box.minX, box.minY, box.minZ, box.maxX, box.maxY, box.maxZ);
+    }
+
+    public boolean intersects(AABB aabb) {
+        return aabb.intersects(this.minX, this.minY, this.minZ, this.maxX + 1.0, this.maxY + 1.0, this.maxZ + 1.0);
+    }
+
+    public BlockBox toImmutable() {
+        return new BlockBox(
+                new BlockPos(this.minX, this.minY, this.minZ),
+                new BlockPos(this.maxX, this.maxY, this.maxZ)
+        );
+    }
+
+    public MutableBlockBox copy() {
+        return new MutableBlockBox().set(this);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        return obj instanceof MutableBlockBox box
+                && this.minX == box.minX && this.minY == box.minY && this.minZ == box.minZ
+                && this.maxX == box.maxX && this.maxY == box.maxY && this.maxZ == box.maxZ;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = this.minX;
+        result = 31 * result + this.minY;
+        result = 31 * result + this.minZ;
+        result = 31 * result + this.maxX;
+        result = 31 * result + this.maxY;
+        result = 31 * result + this.maxZ;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "MutableBlockBox[" + this.minX + ", " + this.minY + ", " + this.minZ + " -> " + this.maxX + ", " + this.maxY + ", " + this.maxZ + "]";
+    }
+}
@@ -3,12 +3,23 @@ package com.lovetropics.lib.backend;
 import com.google.gson.JsonObject;
 
 import javax.annotation.Nullable;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
 
 public interface BackendConnection {
 	boolean send(JsonObject payload);
 
+	// Completes with the reply carrying the same request id, or fails once the timeout elapses or the connection closes
+	default CompletableFuture<JsonObject> request(JsonObject payload, Duration timeout) {
+		return CompletableFuture.failedFuture(new UnsupportedOperationException());
+	}
+
 	boolean isConnected();
 
+	default BackendMetrics.Snapshot metrics() {
+		return BackendMetrics.Snapshot.empty();
+	}
+
 	interface Handler {
 		void acceptOpened();
 
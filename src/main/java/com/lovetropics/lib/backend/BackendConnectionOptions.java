@@ -0,0 +1,162 @@
+package com.lovetropics.lib.backend;
+
+import com.google.gson.JsonObject;
+
+import javax.annotation.Nullable;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+public final class BackendConnectionOptions {
+	private boolean batching;
+	private int maxBatchBytes = 64 * 1024;
+	private long batchWindowMillis = 5;
+	private DispatchMode dispatchMode = DispatchMode.EVENT_LOOP;
+	private int inboundQueueCapacity = 1024;
+	private int writeQueueCapacity = Integer.MAX_VALUE;
+	private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_NEWEST;
+	private long blockTimeoutMillis = 50;
+	@Nullable
+	private Function<JsonObject, String> coalesceKey;
+	private List<BackendPayloadFormat> formats = List.of(BackendPayloadFormat.JSON);
+	@Nullable
+	private Path outboxPath;
+	private int outboxCapacity;
+	private BackendEventLoop eventLoop;
+
+	private BackendConnectionOptions() {
+	}
+
+	public static BackendConnectionOptions defaults() {
+		return new BackendConnectionOptions();
+	}
+
+	// Coalesces queued payloads into a single JSON array frame, flushed once the window elapses or the size limit is reached
+	public BackendConnectionOptions withBatching(int maxBatchBytes, long batchWindowMillis) {
+		this.batching = true;
+		this.maxBatchBytes = maxBatchBytes;
+		this.batchWindowMillis = batchWindowMillis;
+		return this;
+	}
+
+	// Queues inbound messages to be handled on the caller's tick instead of on the network thread
+	public BackendConnectionOptions withTickDispatch(int inboundQueueCapacity) {
+		this.dispatchMode = DispatchMode.TICK;
+		this.inboundQueueCapacity = inboundQueueCapacity;
+		return this;
+	}
+
+	public BackendConnectionOptions withWriteQueue(int capacity, OverflowPolicy policy) {
+		this.writeQueueCapacity = capacity;
+		this.overflowPolicy = policy;
+		return this;
+	}
+
+	// With the COALESCE policy, a queued payload is replaced by a newer one with the same key
+	public BackendConnectionOptions withCoalesceKey(Function<JsonObject, String> coalesceKey) {
+		this.coalesceKey = coalesceKey;
+		return this;
+	}
+
+	// With the BLOCK policy, how long a sender may wait for room before the payload is dropped; sends from the event loop itself never wait
+	public BackendConnectionOptions withBlockTimeout(long blockTimeoutMillis) {
+		this.blockTimeoutMillis = blockTimeoutMillis;
+		return this;
+	}
+
+	// Offers the formats to the backend as WebSocket subprotocols in order of preference; if the backend picks none, the handshake fails and the connection is retried once with plain JSON
+	public BackendConnectionOptions withFormats(BackendPayloadFormat... formats) {
+		this.formats = List.of(formats);
+		return this;
+	}
+
+	// Journals payloads sent through a BackendProxy while it is disconnected, to be replayed once it reconnects; the backend must reply to each replayed payload with its "request_id"
+	public BackendConnectionOptions withOutbox(Path path, int capacityBytes) {
+		this.outboxPath = path;
+		this.outboxCapacity = capacityBytes;
+		return this;
+	}
+
+	// Runs the connection on the given loop rather than the shared one; connections on a multi-threaded loop are spread across its threads
+	public BackendConnectionOptions withEventLoop(BackendEventLoop eventLoop) {
+		this.eventLoop = eventLoop;
+		return this;
+	}
+
+	public boolean batching() {
+		return this.batching;
+	}
+
+	public int maxBatchBytes() {
+		return this.maxBatchBytes;
+	}
+
+	public long batchWindowMillis() {
+		return this.batchWindowMillis;
+	}
+
+	public DispatchMode dispatchMode() {
+		return this.dispatchMode;
+	}
+
+	public int inboundQueueCapacity() {
+		return this.inboundQueueCapacity;
+	}
+
+	public int writeQueueCapacity() {
+		return this.writeQueueCapacity;
+	}
+
+	public OverflowPolicy overflowPolicy() {
+		return this.overflowPolicy;
+	}
+
+	public long blockTimeoutMillis() {
+		return this.blockTimeoutMillis;
+	}
+
+	@Nullable
+	public Function<JsonObject, String> coalesceKey() {
+		return this.coalesceKey;
+	}
+
+	public List<BackendPayloadFormat> formats() {
+		return this.formats;
+	}
+
+	@Nullable
+	public Path outboxPath() {
+		return this.outboxPath;
+	}
+
+	public int outboxCapacity() {
+		return this.outboxCapacity;
+	}
+
+	public BackendEventLoop eventLoop() {
+		BackendEventLoop eventLoop = this.eventLoop;
+		return eventLoop != null ? eventLoop : BackendEventLoop.shared();
+	}
+
+	// Plain JSON connections do not request a subprotocol, for compatibility with backends that do not negotiate one
+	@Nullable
+	public String subprotocols() {
+		if (this.formats.equals(List.of(BackendPayloadFormat.JSON))) {
+			return null;
+		}
+		return this.formats.stream().map(BackendPayloadFormat::subprotocol).collect(Collectors.joining(","));
+	}
+
+	public enum DispatchMode {
+		EVENT_LOOP,
+		TICK,
+	}
+
+	public enum OverflowPolicy {
+		BLOCK,
+		DROP_OLDEST,
+		DROP_NEWEST,
+		COALESCE,
+	}
+}
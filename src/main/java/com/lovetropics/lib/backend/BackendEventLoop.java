@@ -0,0 +1,88 @@
+package com.lovetropics.lib.backend;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// The event loop group and matching channel transport that backend connections run on; each connection is pinned to one loop of the group
+public final class BackendEventLoop implements AutoCloseable {
+	private static final AtomicInteger GROUP_ID = new AtomicInteger();
+
+	private static BackendEventLoop shared;
+
+	private final EventLoopGroup group;
+	private final Class<? extends SocketChannel> channelType;
+	private final boolean isShared;
+
+	private BackendEventLoop(EventLoopGroup group, Class<? extends SocketChannel> channelType, boolean isShared) {
+		this.group = group;
+		this.channelType = channelType;
+		this.isShared = isShared;
+	}
+
+	// A single-threaded loop shared by every connection that does not configure its own
+	public static synchronized BackendEventLoop shared() {
+		if (shared == null) {
+			shared = create(1, "lt-backend-event-loop", true);
+		}
+		return shared;
+	}
+
+	// Uses the native epoll transport when available, and NIO otherwise
+	public static BackendEventLoop create(int threads) {
+		return create(threads, "lt-backend-event-loop-" + GROUP_ID.incrementAndGet() + "-%d", false);
+	}
+
+	public static BackendEventLoop createNio(int threads) {
+		return new BackendEventLoop(new NioEventLoopGroup(threads, threadFactory("lt-backend-event-loop-" + GROUP_ID.incrementAndGet() + "-%d")), NioSocketChannel.class, false);
+	}
+
+	private static BackendEventLoop create(int threads, String nameFormat, boolean isShared) {
+		ThreadFactory threadFactory = threadFactory(nameFormat);
+		if (Epoll.isAvailable()) {
+			return new BackendEventLoop(new EpollEventLoopGroup(threads, threadFactory), EpollSocketChannel.class, isShared);
+		} else {
+			return new BackendEventLoop(new NioEventLoopGroup(threads, threadFactory), NioSocketChannel.class, isShared);
+		}
+	}
+
+	private static ThreadFactory threadFactory(String nameFormat) {
+		return new ThreadFactoryBuilder()
+				.setNameFormat(nameFormat)
+				.setDaemon(true)
+				.build();
+	}
+
+	public EventLoop next() {
+		return this.group.next();
+	}
+
+	public EventLoopGroup group() {
+		return this.group;
+	}
+
+	public Class<? extends SocketChannel> channelType() {
+		return this.channelType;
+	}
+
+	public boolean isNative() {
+		return this.channelType == EpollSocketChannel.class;
+	}
+
+	// The shared loop lives for as long as the game, so closing it is a no-op
+	@Override
+	public void close() {
+		if (!this.isShared) {
+			this.group.shutdownGracefully();
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package com.lovetropics.lib.backend;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// A lock-free histogram with logarithmic buckets split into 8 linear sub-buckets, giving percentiles to within 12.5%
+public final class BackendLatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+	public void record(long value) {
+		this.counts.incrementAndGet(bucketIndex(Math.max(value, 0)));
+	}
+
+	public Snapshot snapshot() {
+		long[] counts = new long[BUCKET_COUNT];
+		long total = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			long count = this.counts.get(i);
+			counts[i] = count;
+			total += count;
+		}
+		return new Snapshot(counts, total);
+	}
+
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			this.counts.set(i, 0);
+		}
+	}
+
+	private static int bucketIndex(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+		int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	private static long bucketUpperBound(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		int subBucket = index % SUB_BUCKETS;
+		int shift = exponent - SUB_BUCKET_BITS;
+		long lowerBound = (long) (SUB_BUCKETS + subBucket) << shift;
+		return lowerBound + (1L << shift) - 1;
+	}
+
+	public record Snapshot(long[] counts, long count) {
+		// Returns the upper bound of the bucket holding the given quantile, or 0 if nothing has been recorded
+		public long percentile(double quantile) {
+			if (this.count == 0) {
+				return 0;
+			}
+
+			long rank = Math.max(1, (long) Math.ceil(quantile * this.count));
+			long seen = 0;
+			for (int i = 0; i < this.counts.length; i++) {
+				seen += this.counts[i];
+				if (seen >= rank) {
+					return bucketUpperBound(i);
+				}
+			}
+			return bucketUpperBound(this.counts.length - 1);
+		}
+
+		public long p50() {
+			return this.percentile(0.5);
+		}
+
+		public long p90() {
+			return this.percentile(0.9);
+		}
+
+		public long p99() {
+			return this.percentile(0.99);
+		}
+
+		public long max() {
+			return this.percentile(1.0);
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package com.lovetropics.lib.backend;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+// Dispatches inbound messages by their "type" field with a single hash lookup, regardless of how many types are registered
+public final class BackendMessageRouter {
+	public static final String TYPE_KEY = "type";
+
+	private final Map<String, List<Route>> routes = new ConcurrentHashMap<>();
+
+	// Returns true if this is the first route registered for the type
+	boolean add(Route route) {
+		boolean[] first = new boolean[1];
+		this.routes.compute(route.type, (type, routes) -> {
+			if (routes == null) {
+				routes = new CopyOnWriteArrayList<>();
+				first[0] = true;
+			}
+			routes.add(route);
+			return routes;
+		});
+		return first[0];
+	}
+
+	// Returns true if this was the last route registered for the type
+	boolean remove(Route route) {
+		boolean[] last = new boolean[1];
+		this.routes.computeIfPresent(route.type, (type, routes) -> {
+			if (routes.remove(route) && routes.isEmpty()) {
+				last[0] = true;
+				return null;
+			}
+			return routes;
+		});
+		return last[0];
+	}
+
+	Set<String> types() {
+		return this.routes.keySet();
+	}
+
+	// Returns false if no route matched, so that the message can be handled elsewhere
+	public boolean dispatch(JsonObject payload) {
+		JsonElement type = payload.get(TYPE_KEY);
+		if (!(type instanceof JsonPrimitive primitive) || !primitive.isString()) {
+			return false;
+		}
+
+		List<Route> routes = this.routes.get(primitive.getAsString());
+		if (routes == null) {
+			return false;
+		}
+
+		for (Route route : routes) {
+			route.accept(payload);
+		}
+		return true;
+	}
+
+	static final class Route {
+		final String type;
+		@Nullable
+		private final Executor executor;
+		private final Consumer<JsonObject> handler;
+
+		Route(String type, @Nullable Executor executor, Consumer<JsonObject> handler) {
+			this.type = type;
+			this.executor = executor;
+			this.handler = handler;
+		}
+
+		void accept(JsonObject payload) {
+			if (this.executor != null) {
+				this.executor.execute(() -> this.handler.accept(payload));
+			} else {
+				this.handler.accept(payload);
+			}
+		}
+	}
+}
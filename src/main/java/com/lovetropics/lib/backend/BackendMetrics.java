@@ -0,0 +1,76 @@
+package com.lovetropics.lib.backend;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters updated from the network and sending threads; a BackendProxy keeps one instance across reconnects
+public final class BackendMetrics {
+	private final LongAdder messagesSent = new LongAdder();
+	private final LongAdder bytesSent = new LongAdder();
+	private final LongAdder messagesReceived = new LongAdder();
+	private final LongAdder bytesReceived = new LongAdder();
+	private final LongAdder reconnects = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+
+	private final LongAdder serializations = new LongAdder();
+	private final LongAdder serializationNanos = new LongAdder();
+
+	private final BackendLatencyHistogram roundTrip = new BackendLatencyHistogram();
+	private volatile long lastRoundTripNanos = -1;
+
+	void recordSent(int bytes) {
+		this.messagesSent.increment();
+		this.bytesSent.add(bytes);
+	}
+
+	void recordReceivedMessage() {
+		this.messagesReceived.increment();
+	}
+
+	void recordReceivedBytes(int bytes) {
+		this.bytesReceived.add(bytes);
+	}
+
+	void recordSerialization(long nanos) {
+		this.serializations.increment();
+		this.serializationNanos.add(nanos);
+	}
+
+	void recordRoundTrip(long nanos) {
+		this.roundTrip.record(nanos);
+		this.lastRoundTripNanos = nanos;
+	}
+
+	void recordDropped() {
+		this.dropped.increment();
+	}
+
+	void recordReconnect() {
+		this.reconnects.increment();
+	}
+
+	Snapshot snapshot(int writeQueueSize, int writeQueueBytes, int inboundQueueSize, int pendingRequests) {
+		long serializations = this.serializations.sum();
+		return new Snapshot(
+				this.messagesSent.sum(), this.bytesSent.sum(),
+				this.messagesReceived.sum(), this.bytesReceived.sum(),
+				writeQueueSize, writeQueueBytes, inboundQueueSize, pendingRequests, this.dropped.sum(),
+				this.reconnects.sum(),
+				serializations > 0 ? this.serializationNanos.sum() / serializations : 0,
+				this.lastRoundTripNanos, this.roundTrip.snapshot()
+		);
+	}
+
+	// Round-trip times are measured from WebSocket ping/pong, and are -1 or empty until the first pong arrives
+	public record Snapshot(
+			long messagesSent, long bytesSent,
+			long messagesReceived, long bytesReceived,
+			int writeQueueSize, int writeQueueBytes, int inboundQueueSize, int pendingRequests, long droppedMessages,
+			long reconnects,
+			long meanSerializationNanos,
+			long lastRoundTripNanos, BackendLatencyHistogram.Snapshot roundTripNanos
+	) {
+		public static Snapshot empty() {
+			return new BackendMetrics().snapshot(0, 0, 0, 0);
+		}
+	}
+}
@@ -0,0 +1,191 @@
+package com.lovetropics.lib.backend;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// An append-only journal of payloads in a memory-mapped file, truncated from the front as they are acknowledged
+public final class BackendOutbox implements AutoCloseable {
+	private static final Logger LOGGER = LogManager.getLogger(BackendOutbox.class);
+	private static final Gson GSON = new Gson();
+
+	private static final int HEADER_SIZE = 3 * Long.BYTES;
+	private static final int BASE_OFFSET = 0;
+	private static final int READ_OFFSET = Long.BYTES;
+	private static final int WRITE_OFFSET = 2 * Long.BYTES;
+
+	private static final int COPY_CHUNK_SIZE = 8192;
+
+	private final FileChannel channel;
+	private final MappedByteBuffer buffer;
+	private final int capacity;
+
+	// Offsets only ever grow, so that entries handed out for replay stay valid after compaction: base is the offset stored at the start of the file
+	private long base;
+	private long readOffset;
+	private long writeOffset;
+
+	private BackendOutbox(FileChannel channel, MappedByteBuffer buffer, int capacity) {
+		this.channel = channel;
+		this.buffer = buffer;
+		this.capacity = capacity;
+
+		long base = buffer.getLong(BASE_OFFSET);
+		long readOffset = buffer.getLong(READ_OFFSET);
+		long writeOffset = buffer.getLong(WRITE_OFFSET);
+		if (base < 0 || readOffset < base || readOffset > writeOffset || writeOffset - base > capacity) {
+			base = 0;
+			readOffset = 0;
+			writeOffset = 0;
+		}
+		this.base = base;
+		this.readOffset = readOffset;
+		this.writeOffset = writeOffset;
+		this.writeHeader();
+	}
+
+	public static BackendOutbox open(Path path, int capacity) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			long size = Math.max(channel.size(), HEADER_SIZE + (long) capacity);
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			return new BackendOutbox(channel, buffer, (int) (size - HEADER_SIZE));
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	// Returns false if the payload does not fit within the size cap
+	public synchronized boolean append(JsonObject payload) {
+		byte[] bytes = GSON.toJson(payload).getBytes(StandardCharsets.UTF_8);
+		int recordSize = Integer.BYTES + bytes.length;
+
+		if (this.writeOffset - this.base + recordSize > this.capacity) {
+			if (this.writeOffset - this.readOffset + recordSize > this.capacity) {
+				return false;
+			}
+			this.compact();
+		}
+
+		int position = this.position(this.writeOffset);
+		this.buffer.putInt(position, bytes.length);
+		this.buffer.put(position + Integer.BYTES, bytes);
+		this.writeOffset += recordSize;
+		this.writeHeader();
+
+		return true;
+	}
+
+	public synchronized List<Entry> pending() {
+		List<Entry> entries = new ArrayList<>();
+		long offset = this.readOffset;
+		while (offset < this.writeOffset) {
+			int position = this.position(offset);
+			int length = offset + Integer.BYTES <= this.writeOffset ? this.buffer.getInt(position) : -1;
+			JsonObject payload = null;
+			if (length >= 0 && offset + Integer.BYTES + length <= this.writeOffset) {
+				byte[] bytes = new byte[length];
+				this.buffer.get(position + Integer.BYTES, bytes);
+				payload = parse(bytes);
+			}
+
+			if (payload == null) {
+				// A torn or corrupt record can only be followed by more of the same, so drop everything from it onwards
+				LOGGER.warn("Discarding {} bytes of corrupt backend outbox records", this.writeOffset - offset);
+				this.writeOffset = offset;
+				this.writeHeader();
+				break;
+			}
+
+			offset += Integer.BYTES + length;
+			entries.add(new Entry(payload, offset));
+		}
+		return entries;
+	}
+
+	@Nullable
+	private static JsonObject parse(byte[] bytes) {
+		try {
+			JsonElement element = JsonParser.parseString(new String(bytes, StandardCharsets.UTF_8));
+			return element.isJsonObject() ? element.getAsJsonObject() : null;
+		} catch (JsonParseException e) {
+			return null;
+		}
+	}
+
+	// Drops the given entry and every entry before it
+	public synchronized void acknowledge(Entry entry) {
+		long offset = entry.endOffset;
+		if (offset <= this.readOffset || offset > this.writeOffset) {
+			return;
+		}
+		this.readOffset = offset;
+		this.writeHeader();
+	}
+
+	public synchronized boolean isEmpty() {
+		return this.readOffset == this.writeOffset;
+	}
+
+	public synchronized int usedBytes() {
+		return (int) (this.writeOffset - this.readOffset);
+	}
+
+	public int capacity() {
+		return this.capacity;
+	}
+
+	private int position(long offset) {
+		return HEADER_SIZE + (int) (offset - this.base);
+	}
+
+	private void compact() {
+		int source = this.position(this.readOffset);
+		int length = (int) (this.writeOffset - this.readOffset);
+
+		// Copy forwards in chunks: the destination is always before the source
+		byte[] chunk = new byte[Math.min(length, COPY_CHUNK_SIZE)];
+		for (int copied = 0; copied < length; copied += chunk.length) {
+			int size = Math.min(chunk.length, length - copied);
+			this.buffer.get(source + copied, chunk, 0, size);
+			this.buffer.put(HEADER_SIZE + copied, chunk, 0, size);
+		}
+
+		this.base = this.readOffset;
+		this.writeHeader();
+	}
+
+	private void writeHeader() {
+		this.buffer.putLong(BASE_OFFSET, this.base);
+		this.buffer.putLong(READ_OFFSET, this.readOffset);
+		this.buffer.putLong(WRITE_OFFSET, this.writeOffset);
+	}
+
+	public synchronized void flush() {
+		this.buffer.force();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		this.buffer.force();
+		this.channel.close();
+	}
+
+	public record Entry(JsonObject payload, long endOffset) {
+	}
+}
@@ -0,0 +1,37 @@
+package com.lovetropics.lib.backend;
+
+import com.google.gson.JsonObject;
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.function.Consumer;
+
+public interface BackendPayloadFormat {
+	BackendPayloadFormat JSON = JsonPayloadFormat.INSTANCE;
+	BackendPayloadFormat CBOR = CborPayloadFormat.INSTANCE;
+
+	// The subprotocol is only null when none was offered, as Netty fails the handshake if an offer is not answered
+	static BackendPayloadFormat bySubprotocol(@Nullable String subprotocol) {
+		if (subprotocol != null && subprotocol.equals(CBOR.subprotocol())) {
+			return CBOR;
+		}
+		return JSON;
+	}
+
+	String subprotocol();
+
+	void encode(JsonObject payload, ByteBuf buffer);
+
+	// Passes every message in the buffer to the consumer, unpacking batches
+	void decode(ByteBuf buffer, Consumer<JsonObject> consumer) throws IOException;
+
+	WebSocketFrame frame(ByteBuf buffer);
+
+	void beginBatch(ByteBuf batch);
+
+	void separateBatch(ByteBuf batch);
+
+	void endBatch(ByteBuf batch);
+}
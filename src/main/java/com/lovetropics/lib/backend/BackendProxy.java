@@ -5,30 +5,74 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import javax.annotation.Nullable;
+import java.io.IOException;
 import java.net.URI;
+import java.nio.channels.ClosedChannelException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 public final class BackendProxy implements BackendConnection {
 	private static final Logger LOGGER = LogManager.getLogger(BackendProxy.class);
 	private static final long RECONNECT_INTERVAL_MS = 10 * 1000;
 	private static final long PING_INTERVAL_MS = 2 * 1000;
+	private static final Duration OUTBOX_ACK_TIMEOUT = Duration.ofSeconds(30);
 
 	private final Supplier<URI> address;
 	private final Handler receiver;
+	private final BackendConnectionOptions options;
+	@Nullable
+	private final BackendOutbox outbox;
+	private final BackendMetrics metrics = new BackendMetrics();
+	private final BackendMessageRouter router = new BackendMessageRouter();
 
 	private volatile BackendWebSocketConnection connection;
 	private volatile boolean connecting;
+	// A closed connection whose tick-dispatched messages have not yet been handed to the handler
+	private volatile BackendWebSocketConnection closing;
 
 	private long lastConnectTime;
 	private long lastPingTime;
+	private boolean everConnected;
 
 	public BackendProxy(Supplier<URI> address, BackendConnection.Handler handler) {
+		this(address, handler, BackendConnectionOptions.defaults());
+	}
+
+	public BackendProxy(Supplier<URI> address, BackendConnection.Handler handler, BackendConnectionOptions options) {
 		this.address = address;
 		this.receiver = new Handler(handler);
+		this.options = options;
+		this.outbox = openOutbox(options);
 		this.initiateConnection();
 	}
 
+	@Nullable
+	private static BackendOutbox openOutbox(BackendConnectionOptions options) {
+		Path path = options.outboxPath();
+		if (path == null) {
+			return null;
+		}
+		try {
+			return BackendOutbox.open(path, options.outboxCapacity());
+		} catch (IOException e) {
+			LOGGER.error("Failed to open backend outbox at {}, continuing without it", path, e);
+			return null;
+		}
+	}
+
 	public void tick() {
+		BackendWebSocketConnection closing = this.closing;
+		if (closing != null) {
+			this.closing = null;
+			closing.dispatchQueued();
+		}
+
 		if (this.connecting) {
 			return;
 		}
@@ -44,6 +88,8 @@ public final class BackendProxy implements BackendConnection {
 	}
 
 	private void tickConnected(BackendWebSocketConnection connection, long time) {
+		connection.dispatchQueued();
+
 		if (time - this.lastPingTime > PING_INTERVAL_MS) {
 			this.lastPingTime = time;
 			connection.ping();
@@ -63,7 +109,7 @@ public final class BackendProxy implements BackendConnection {
 		if (address != null) {
 			this.connecting = true;
 
-			BackendWebSocketConnection.connect(address, this.receiver).handle((connection, throwable) -> {
+			BackendWebSocketConnection.connect(address, this.receiver, this.options, this.metrics).handle((connection, throwable) -> {
 				if (connection != null) {
 					this.onConnectionOpen(connection);
 				} else {
@@ -76,8 +122,52 @@ public final class BackendProxy implements BackendConnection {
 
 	private void onConnectionOpen(BackendWebSocketConnection connection) {
 		LOGGER.info("Successfully opened backend connection to {}", this.address);
-		this.connection = connection;
-		this.connecting = false;
+		if (this.everConnected) {
+			this.metrics.recordReconnect();
+		}
+		this.everConnected = true;
+
+		synchronized (this) {
+			try {
+				if (this.outbox != null) {
+					this.replayOutbox(this.outbox, connection);
+				}
+			} catch (RuntimeException e) {
+				LOGGER.error("Failed to replay backend outbox", e);
+			} finally {
+				// Otherwise the proxy would stay in the connecting state, and tick() would never try again
+				this.connection = connection;
+				this.connecting = false;
+			}
+		}
+
+		for (String type : this.router.types()) {
+			connection.send(subscriptionMessage("subscribe", type));
+		}
+	}
+
+	// Replayed payloads are sent as requests ahead of any new messages, and the backend must reply to each with its request id.
+	// An entry is only dropped from the outbox once it and every entry before it have been acknowledged, so anything unacknowledged is sent again on the next reconnect
+	private void replayOutbox(BackendOutbox outbox, BackendWebSocketConnection connection) {
+		List<BackendOutbox.Entry> pending = outbox.pending();
+		if (pending.isEmpty()) {
+			return;
+		}
+
+		LOGGER.info("Replaying {} payloads from backend outbox", pending.size());
+		CompletableFuture<?> acknowledged = CompletableFuture.completedFuture(null);
+		for (BackendOutbox.Entry entry : pending) {
+			CompletableFuture<JsonObject> reply = connection.request(entry.payload(), OUTBOX_ACK_TIMEOUT);
+			acknowledged = acknowledged.thenCombine(reply, (previous, response) -> {
+				outbox.acknowledge(entry);
+				return null;
+			});
+		}
+
+		acknowledged.exceptionally(throwable -> {
+			LOGGER.warn("Backend did not acknowledge all replayed outbox payloads, the rest will be replayed on reconnect", throwable);
+			return null;
+		});
 	}
 
 	private void onConnectionError(Throwable throwable) {
@@ -86,6 +176,10 @@ public final class BackendProxy implements BackendConnection {
 	}
 
 	private void closeConnection() {
+		BackendWebSocketConnection connection = this.connection;
+		if (connection != null && connection.inboundQueueSize() > 0) {
+			this.closing = connection;
+		}
 		this.connection = null;
 		this.connecting = false;
 		this.lastConnectTime = System.currentTimeMillis();
@@ -96,16 +190,75 @@ public final class BackendProxy implements BackendConnection {
 		BackendConnection connection = this.connection;
 		if (connection != null) {
 			return connection.send(payload);
+		} else if (this.outbox != null) {
+			return this.sendToOutbox(payload);
 		} else {
 			return false;
 		}
 	}
 
+	private synchronized boolean sendToOutbox(JsonObject payload) {
+		// The connection may have opened (and the outbox been replayed) since it was checked
+		BackendConnection connection = this.connection;
+		if (connection != null) {
+			return connection.send(payload);
+		}
+		return this.outbox.append(payload);
+	}
+
+	// Requests are not journalled to the outbox, as nothing would be waiting for the reply after a restart
+	@Override
+	public CompletableFuture<JsonObject> request(JsonObject payload, Duration timeout) {
+		BackendConnection connection = this.connection;
+		if (connection != null) {
+			return connection.request(payload, timeout);
+		} else {
+			return CompletableFuture.failedFuture(new ClosedChannelException());
+		}
+	}
+
+	// Messages with a matching "type" go to the subscription instead of the handler; the backend is told about the topic and is told again on every reconnect
+	public Subscription subscribe(String type, Consumer<JsonObject> handler) {
+		return this.subscribe(type, null, handler);
+	}
+
+	public Subscription subscribe(String type, @Nullable Executor executor, Consumer<JsonObject> handler) {
+		BackendMessageRouter.Route route = new BackendMessageRouter.Route(type, executor, handler);
+		if (this.router.add(route)) {
+			this.sendSubscription("subscribe", route.type);
+		}
+		return new Subscription(route);
+	}
+
+	private void sendSubscription(String action, String type) {
+		BackendConnection connection = this.connection;
+		if (connection != null) {
+			connection.send(subscriptionMessage(action, type));
+		}
+	}
+
+	private static JsonObject subscriptionMessage(String action, String type) {
+		JsonObject message = new JsonObject();
+		message.addProperty(BackendMessageRouter.TYPE_KEY, action);
+		message.addProperty("topic", type);
+		return message;
+	}
+
 	@Override
 	public boolean isConnected() {
 		return this.connection != null;
 	}
 
+	// Counters are kept across reconnects; queue depths are those of the current connection
+	@Override
+	public BackendMetrics.Snapshot metrics() {
+		BackendConnection connection = this.connection;
+		if (connection != null) {
+			return connection.metrics();
+		}
+		return this.metrics.snapshot(0, 0, 0, 0);
+	}
+
 	private class Handler implements BackendConnection.Handler {
 		private final BackendConnection.Handler delegate;
 
@@ -120,7 +273,9 @@ public final class BackendProxy implements BackendConnection {
 
 		@Override
 		public void acceptMessage(JsonObject payload) {
-			this.delegate.acceptMessage(payload);
+			if (!BackendProxy.this.router.dispatch(payload)) {
+				this.delegate.acceptMessage(payload);
+			}
 		}
 
 		@Override
@@ -135,4 +290,23 @@ public final class BackendProxy implements BackendConnection {
 			BackendProxy.this.closeConnection();
 		}
 	}
+
+	public final class Subscription {
+		private final BackendMessageRouter.Route route;
+		private final AtomicBoolean subscribed = new AtomicBoolean(true);
+
+		private Subscription(BackendMessageRouter.Route route) {
+			this.route = route;
+		}
+
+		public String type() {
+			return this.route.type;
+		}
+
+		public void unsubscribe() {
+			if (this.subscribed.compareAndSet(true, false) && BackendProxy.this.router.remove(this.route)) {
+				BackendProxy.this.sendSubscription("unsubscribe", this.route.type);
+			}
+		}
+	}
 }
@@ -0,0 +1,162 @@
+package com.lovetropics.lib.backend;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import io.netty.channel.EventLoop;
+
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Correlates requests with their replies by id, expiring them with a hashed wheel that is advanced on the event loop
+final class BackendRequestTracker {
+	static final String ID_KEY = "request_id";
+
+	private static final long TICK_MILLIS = 50;
+	private static final int WHEEL_SIZE = 512;
+
+	private final AtomicLong nextId = new AtomicLong();
+	private final Map<Long, PendingRequest> pending = new ConcurrentHashMap<>();
+
+	// Only touched from the event loop: requests are handed over through the queue and placed on the wheel on the next tick
+	private final ConcurrentLinkedQueue<PendingRequest> unscheduled = new ConcurrentLinkedQueue<>();
+	@SuppressWarnings("unchecked")
+	private final List<PendingRequest>[] wheel = new List[WHEEL_SIZE];
+	private long tick;
+
+	@Nullable
+	private ScheduledFuture<?> ticker;
+	private volatile boolean closed;
+
+	BackendRequestTracker() {
+		for (int i = 0; i < WHEEL_SIZE; i++) {
+			this.wheel[i] = new ArrayList<>();
+		}
+	}
+
+	void start(EventLoop eventLoop) {
+		this.ticker = eventLoop.scheduleAtFixedRate(this::advance, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	// Returns a copy of the payload tagged with a fresh correlation id, and registers the request under that id
+	JsonObject register(JsonObject payload, Duration timeout, CompletableFuture<JsonObject> future) {
+		long id = this.nextId.incrementAndGet();
+
+		long timeoutTicks = Math.max(1, (timeout.toMillis() + TICK_MILLIS - 1) / TICK_MILLIS);
+		PendingRequest request = new PendingRequest(id, timeoutTicks, future);
+		this.pending.put(id, request);
+		this.unscheduled.add(request);
+		if (this.closed) {
+			this.cancel(id, new IllegalStateException("Backend connection is closed"));
+		}
+
+		JsonObject tagged = new JsonObject();
+		for (Map.Entry<String, JsonElement> entry : payload.entrySet()) {
+			tagged.add(entry.getKey(), entry.getValue());
+		}
+		tagged.addProperty(ID_KEY, id);
+		return tagged;
+	}
+
+	void cancel(long id, Throwable cause) {
+		PendingRequest request = this.pending.remove(id);
+		if (request != null) {
+			request.future.completeExceptionally(cause);
+		}
+	}
+
+	// Returns true if the payload was a reply to a pending request and has been consumed
+	boolean acceptReply(JsonObject payload) {
+		if (this.pending.isEmpty()) {
+			return false;
+		}
+
+		JsonElement idElement = payload.get(ID_KEY);
+		if (!(idElement instanceof JsonPrimitive primitive) || !primitive.isNumber()) {
+			return false;
+		}
+
+		PendingRequest request = this.pending.remove(primitive.getAsLong());
+		if (request == null) {
+			return false;
+		}
+
+		request.future.complete(payload);
+		return true;
+	}
+
+	int pendingCount() {
+		return this.pending.size();
+	}
+
+	private void advance() {
+		long tick = this.tick++;
+
+		PendingRequest request;
+		while ((request = this.unscheduled.poll()) != null) {
+			if (!request.future.isDone()) {
+				long deadline = tick + request.timeoutTicks;
+				request.rounds = request.timeoutTicks / WHEEL_SIZE;
+				this.wheel[(int) (deadline % WHEEL_SIZE)].add(request);
+			}
+		}
+
+		List<PendingRequest> bucket = this.wheel[(int) (tick % WHEEL_SIZE)];
+		for (int i = bucket.size() - 1; i >= 0; i--) {
+			PendingRequest entry = bucket.get(i);
+			if (entry.future.isDone()) {
+				removeAt(bucket, i);
+			} else if (entry.rounds-- <= 0) {
+				removeAt(bucket, i);
+				this.cancel(entry.id, new TimeoutException("Backend request " + entry.id + " timed out"));
+			}
+		}
+	}
+
+	// Order within a bucket does not matter, so swap the last entry in rather than shifting
+	private static void removeAt(List<PendingRequest> bucket, int index) {
+		int last = bucket.size() - 1;
+		if (index != last) {
+			bucket.set(index, bucket.get(last));
+		}
+		bucket.remove(last);
+	}
+
+	void close(Throwable cause) {
+		this.closed = true;
+
+		ScheduledFuture<?> ticker = this.ticker;
+		if (ticker != null) {
+			ticker.cancel(false);
+			this.ticker = null;
+		}
+
+		for (Long id : List.copyOf(this.pending.keySet())) {
+			this.cancel(id, cause);
+		}
+		this.unscheduled.clear();
+	}
+
+	private static final class PendingRequest {
+		final long id;
+		final long timeoutTicks;
+		final CompletableFuture<JsonObject> future;
+		long rounds;
+
+		PendingRequest(long id, long timeoutTicks, CompletableFuture<JsonObject> future) {
+			this.id = id;
+			this.timeoutTicks = timeoutTicks;
+			this.future = future;
+		}
+	}
+}
@@ -1,14 +1,11 @@
 package com.lovetropics.lib.backend;
 
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
-import com.google.gson.Gson;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.codec.http.DefaultHttpHeaders;
 import io.netty.handler.codec.http.HttpClientCodec;
 import io.netty.handler.codec.http.HttpHeaders;
@@ -18,46 +15,93 @@ import io.netty.handler.codec.http.websocketx.extensions.compression.WebSocketCl
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
 import io.netty.handler.timeout.WriteTimeoutHandler;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
+import javax.annotation.Nullable;
 import javax.net.ssl.SSLException;
+import java.io.IOException;
 import java.net.URI;
+import java.nio.channels.ClosedChannelException;
+import java.time.Duration;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 public final class BackendWebSocketConnection extends SimpleChannelInboundHandler<WebSocketFrame> implements BackendConnection {
-	private static final EventLoopGroup EVENT_LOOP_GROUP = new NioEventLoopGroup(
-			1,
-			new ThreadFactoryBuilder()
-					.setNameFormat("lt-backend-event-loop")
-					.setDaemon(true)
-					.build()
-	);
+	private static final Logger LOGGER = LogManager.getLogger(BackendWebSocketConnection.class);
 
 	private static final int TIMEOUT_SECONDS = 30;
 	private static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
 
-	private static final Gson GSON = new Gson();
-	private static final JsonParser JSON_PARSER = new JsonParser();
-
 	private final Handler handler;
+	private final BackendConnectionOptions options;
+	private final EventLoop eventLoop;
+	private final BackendMetrics metrics;
 
-	private final ConcurrentLinkedQueue<String> writeQueue = new ConcurrentLinkedQueue<>();
+	private final BackendWriteQueue writeQueue;
 	private final AtomicBoolean scheduledWrite = new AtomicBoolean(false);
+	private final AtomicBoolean scheduledFlush = new AtomicBoolean(false);
+
+	private final ConcurrentLinkedQueue<JsonObject> inboundQueue = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger inboundSize = new AtomicInteger();
+	private volatile boolean inboundPaused;
+
+	private final BackendRequestTracker requests = new BackendRequestTracker();
+
+	private final CompletableFuture<BackendWebSocketConnection> opened = new CompletableFuture<>();
+	private volatile BackendPayloadFormat format = BackendPayloadFormat.JSON;
+	private boolean offeredSubprotocols;
 
 	private Channel channel;
 
-	private BackendWebSocketConnection(Handler handler) {
+	private BackendWebSocketConnection(Handler handler, BackendConnectionOptions options, BackendMetrics metrics) {
 		this.handler = handler;
+		this.options = options;
+		this.metrics = metrics;
+		this.eventLoop = options.eventLoop().next();
+		this.writeQueue = new BackendWriteQueue(options, this.eventLoop, metrics);
 	}
 
 	public static CompletableFuture<BackendWebSocketConnection> connect(URI address, Handler handler) {
+		return connect(address, handler, BackendConnectionOptions.defaults());
+	}
+
+	public static CompletableFuture<BackendWebSocketConnection> connect(URI address, Handler handler, BackendConnectionOptions options) {
+		return connect(address, handler, options, new BackendMetrics());
+	}
+
+	static CompletableFuture<BackendWebSocketConnection> connect(URI address, Handler handler, BackendConnectionOptions options, BackendMetrics metrics) {
+		String subprotocols = options.subprotocols();
+		if (subprotocols == null) {
+			return connect(address, handler, options, metrics, null);
+		}
+
+		// Netty rejects the handshake if subprotocols were offered and the backend picked none, so retry once offering none and use JSON
+		return connect(address, handler, options, metrics, subprotocols).exceptionallyCompose(error -> {
+			if (isSubprotocolRejection(error)) {
+				LOGGER.warn("Backend at {} did not accept any of the offered subprotocols ({}), reconnecting with plain JSON", address, subprotocols);
+				return connect(address, handler, options, metrics, null);
+			}
+			return CompletableFuture.failedFuture(error);
+		});
+	}
+
+	private static boolean isSubprotocolRejection(Throwable error) {
+		return error instanceof WebSocketClientHandshakeException && error.getMessage() != null && error.getMessage().startsWith("Invalid subprotocol");
+	}
+
+	private static CompletableFuture<BackendWebSocketConnection> connect(URI address, Handler handler, BackendConnectionOptions options, BackendMetrics metrics, @Nullable String subprotocols) {
 		String protocol = address.getScheme();
 		if (!protocol.equals("ws") && !protocol.equals("wss")) {
 			throw new IllegalArgumentException("Backend connection requires ws or wss protocol!");
 		}
 
-		BackendWebSocketConnection connection = new BackendWebSocketConnection(handler);
+		BackendWebSocketConnection connection = new BackendWebSocketConnection(handler, options, metrics);
+		connection.offeredSubprotocols = subprotocols != null;
 
 		HttpHeaders headers = new DefaultHttpHeaders();
 		SslContext ssl;
@@ -71,12 +115,13 @@ public final class BackendWebSocketConnection extends SimpleChannelInboundHandle
 			ssl = null;
 		}
 
-		WebSocketClientHandshaker handshaker = WebSocketClientHandshakerFactory.newHandshaker(address, WebSocketVersion.V13, null, false, headers, MAX_FRAME_SIZE);
-		WebSocketClientProtocolHandler websocket = new WebSocketClientProtocolHandler(handshaker);
+		WebSocketClientHandshaker handshaker = WebSocketClientHandshakerFactory.newHandshaker(address, WebSocketVersion.V13, subprotocols, false, headers, MAX_FRAME_SIZE);
+		// Pong frames are passed through so that they can be used to measure round-trip time
+		WebSocketClientProtocolHandler websocket = new WebSocketClientProtocolHandler(handshaker, true, false);
 
 		Bootstrap bootstrap = new Bootstrap();
-		bootstrap.group(EVENT_LOOP_GROUP);
-		bootstrap.channel(NioSocketChannel.class);
+		bootstrap.group(connection.eventLoop);
+		bootstrap.channel(options.eventLoop().channelType());
 		bootstrap.handler(new ChannelInitializer<SocketChannel>() {
 			@Override
 			protected void initChannel(SocketChannel channel) {
@@ -98,14 +143,34 @@ public final class BackendWebSocketConnection extends SimpleChannelInboundHandle
 		future.handle((connected, error) -> {
 			if (connected != null) {
 				connection.channel = connected;
-				connection.handler.acceptOpened();
 			} else {
 				connection.handler.acceptError(error);
+				connection.opened.completeExceptionally(error);
 			}
 			return null;
 		});
 
-		return future.thenApply(c -> connection);
+		// The connection is only handed out once the WebSocket handshake has completed and the payload format is known
+		return connection.opened;
+	}
+
+	@Override
+	public void userEventTriggered(ChannelHandlerContext ctx, Object event) throws Exception {
+		if (event == WebSocketClientProtocolHandler.ClientHandshakeStateEvent.HANDSHAKE_COMPLETE) {
+			WebSocketClientProtocolHandler protocol = ctx.pipeline().get(WebSocketClientProtocolHandler.class);
+			this.format = BackendPayloadFormat.bySubprotocol(protocol.handshaker().actualSubprotocol());
+			this.channel = ctx.channel();
+			this.requests.start(ctx.channel().eventLoop());
+			this.handler.acceptOpened();
+			this.opened.complete(this);
+		} else if (event == WebSocketClientProtocolHandler.ClientHandshakeStateEvent.HANDSHAKE_TIMEOUT) {
+			this.opened.completeExceptionally(new WebSocketHandshakeException("Backend WebSocket handshake timed out"));
+		}
+		super.userEventTriggered(ctx, event);
+	}
+
+	public BackendPayloadFormat format() {
+		return this.format;
 	}
 
 	private static CompletableFuture<Channel> awaitFuture(ChannelFuture channelFuture) {
@@ -121,76 +186,275 @@ public final class BackendWebSocketConnection extends SimpleChannelInboundHandle
 		return completableFuture;
 	}
 
+	// The ping carries the time it was sent, which the backend echoes back in its pong
 	public void ping() {
-		EVENT_LOOP_GROUP.execute(() -> this.channel.writeAndFlush(new PingWebSocketFrame()));
+		this.eventLoop.execute(() -> {
+			Channel channel = this.channel;
+			if (channel != null) {
+				ByteBuf payload = channel.alloc().buffer(Long.BYTES).writeLong(System.nanoTime());
+				channel.writeAndFlush(new PingWebSocketFrame(payload));
+			}
+		});
+	}
+
+	private void acceptPong(PongWebSocketFrame frame) {
+		ByteBuf content = frame.content();
+		if (content.readableBytes() == Long.BYTES) {
+			this.metrics.recordRoundTrip(System.nanoTime() - content.getLong(content.readerIndex()));
+		}
+	}
+
+	@Override
+	public BackendMetrics.Snapshot metrics() {
+		return this.metrics.snapshot(this.writeQueue.size(), this.writeQueue.bytes(), this.inboundSize.get(), this.requests.pendingCount());
 	}
 
 	@Override
 	public boolean send(JsonObject payload) {
-		String text = GSON.toJson(payload);
-		this.writeQueue.add(text);
+		ByteBuf buffer = this.alloc().buffer();
+		try {
+			long start = System.nanoTime();
+			this.format.encode(payload, buffer);
+			this.metrics.recordSerialization(System.nanoTime() - start);
+		} catch (RuntimeException e) {
+			buffer.release();
+			throw e;
+		}
+
+		Function<JsonObject, String> coalesceKey = this.options.coalesceKey();
+		if (!this.writeQueue.offer(buffer, coalesceKey != null ? coalesceKey.apply(payload) : null)) {
+			return false;
+		}
 
-		if (this.scheduledWrite.compareAndSet(false, true)) {
-			EVENT_LOOP_GROUP.execute(this::writeQueued);
+		if (this.options.batching()) {
+			this.scheduleBatchedWrite();
+		} else if (this.scheduledWrite.compareAndSet(false, true)) {
+			this.eventLoop.execute(this::writeQueued);
 		}
 
 		return true;
 	}
 
+	// The reply is matched by the request id and completes the future on the event loop, without being passed to the handler
+	@Override
+	public CompletableFuture<JsonObject> request(JsonObject payload, Duration timeout) {
+		CompletableFuture<JsonObject> future = new CompletableFuture<>();
+		if (this.channel == null) {
+			future.completeExceptionally(new ClosedChannelException());
+			return future;
+		}
+
+		JsonObject tagged = this.requests.register(payload, timeout, future);
+		if (!this.send(tagged)) {
+			this.requests.cancel(tagged.get(BackendRequestTracker.ID_KEY).getAsLong(), new IllegalStateException("Backend write queue is full"));
+		}
+		return future;
+	}
+
+	public int pendingRequests() {
+		return this.requests.pendingCount();
+	}
+
+	private ByteBufAllocator alloc() {
+		Channel channel = this.channel;
+		return channel != null ? channel.alloc() : ByteBufAllocator.DEFAULT;
+	}
+
+	private void scheduleBatchedWrite() {
+		if (this.writeQueue.bytes() >= this.options.maxBatchBytes()) {
+			if (this.scheduledFlush.compareAndSet(false, true)) {
+				this.eventLoop.execute(this::writeQueued);
+			}
+		} else if (this.scheduledWrite.compareAndSet(false, true)) {
+			this.eventLoop.schedule(this::writeQueued, this.options.batchWindowMillis(), TimeUnit.MILLISECONDS);
+		}
+	}
+
 	private void writeQueued() {
 		this.scheduledWrite.set(false);
+		this.scheduledFlush.set(false);
 
-		ConcurrentLinkedQueue<String> writeQueue = this.writeQueue;
+		BackendWriteQueue writeQueue = this.writeQueue;
 		if (!writeQueue.isEmpty()) {
 			Channel channel = this.channel;
+			if (channel == null) {
+				writeQueue.clear();
+				return;
+			}
 
-			String message;
-			while ((message = writeQueue.poll()) != null) {
-				ChannelFuture future = channel.write(new TextWebSocketFrame(message));
-				future.addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
+			// Anything left in the queue is written once the channel becomes writable again
+			if (this.options.batching()) {
+				this.writeBatches(channel, writeQueue);
+			} else {
+				ByteBuf message;
+				while (channel.isWritable() && (message = writeQueue.poll()) != null) {
+					this.metrics.recordSent(message.readableBytes());
+					ChannelFuture future = channel.write(this.format.frame(message));
+					future.addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
+				}
 			}
 
 			channel.flush();
 		}
 	}
 
+	private void writeBatches(Channel channel, BackendWriteQueue writeQueue) {
+		int maxBatchBytes = this.options.maxBatchBytes();
+		ByteBuf batch = null;
+
+		ByteBuf message;
+		while (channel.isWritable() && (message = writeQueue.poll()) != null) {
+			int length = message.readableBytes();
+			this.metrics.recordSent(length);
+
+			if (batch != null && batch.readableBytes() + length + 2 > maxBatchBytes) {
+				this.writeBatch(channel, batch);
+				batch = null;
+			}
+
+			if (batch == null) {
+				batch = channel.alloc().buffer(Math.min(maxBatchBytes, length + 2));
+				this.format.beginBatch(batch);
+			} else {
+				this.format.separateBatch(batch);
+			}
+			batch.writeBytes(message);
+			message.release();
+		}
+
+		if (batch != null) {
+			this.writeBatch(channel, batch);
+		}
+	}
+
+	private void writeBatch(Channel channel, ByteBuf batch) {
+		this.format.endBatch(batch);
+		ChannelFuture future = channel.write(this.format.frame(batch));
+		future.addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
+	}
+
+	private void releaseQueued() {
+		this.writeQueue.clear();
+		this.requests.close(new ClosedChannelException());
+	}
+
 	@Override
-	protected void channelRead0(ChannelHandlerContext ctx, WebSocketFrame frame) {
+	public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+		if (ctx.channel().isWritable()) {
+			this.writeQueued();
+		}
+		super.channelWritabilityChanged(ctx);
+	}
+
+	public int writeQueueSize() {
+		return this.writeQueue.size();
+	}
+
+	public int writeQueueBytes() {
+		return this.writeQueue.bytes();
+	}
+
+	public long droppedMessages() {
+		return this.writeQueue.dropped();
+	}
+
+	public long coalescedMessages() {
+		return this.writeQueue.coalesced();
+	}
+
+	@Override
+	protected void channelRead0(ChannelHandlerContext ctx, WebSocketFrame frame) throws IOException {
 		if (frame instanceof TextWebSocketFrame) {
-			this.acceptTextFrame((TextWebSocketFrame) frame);
+			this.metrics.recordReceivedBytes(frame.content().readableBytes());
+			BackendPayloadFormat.JSON.decode(frame.content(), this::acceptMessage);
+		} else if (frame instanceof BinaryWebSocketFrame) {
+			this.metrics.recordReceivedBytes(frame.content().readableBytes());
+			this.format.decode(frame.content(), this::acceptMessage);
 		} else if (frame instanceof CloseWebSocketFrame) {
 			this.acceptCloseFrame((CloseWebSocketFrame) frame);
+		} else if (frame instanceof PongWebSocketFrame) {
+			this.acceptPong((PongWebSocketFrame) frame);
 		}
 	}
 
-	private void acceptTextFrame(TextWebSocketFrame textFrame) {
-		JsonObject payload = JSON_PARSER.parse(textFrame.text()).getAsJsonObject();
-		this.handler.acceptMessage(payload);
+	private void acceptMessage(JsonObject payload) {
+		this.metrics.recordReceivedMessage();
+		if (this.requests.acceptReply(payload)) {
+			return;
+		}
+
+		if (this.options.dispatchMode() == BackendConnectionOptions.DispatchMode.TICK) {
+			this.inboundQueue.add(payload);
+			if (this.inboundSize.incrementAndGet() >= this.options.inboundQueueCapacity() && !this.inboundPaused) {
+				// Stop reading from the socket until the tick has caught up, rather than buffering without bound
+				LOGGER.warn("Backend inbound queue is full ({} messages), pausing reads until it is drained", this.inboundSize.get());
+				this.inboundPaused = true;
+				this.channel.config().setAutoRead(false);
+			}
+		} else {
+			this.handler.acceptMessage(payload);
+		}
+	}
+
+	// Hands messages queued by tick dispatch to the handler; must be called from the thread that should handle them, and may still be called once after close
+	public int dispatchQueued() {
+		int dispatched = 0;
+		JsonObject payload;
+		while ((payload = this.inboundQueue.poll()) != null) {
+			this.inboundSize.decrementAndGet();
+			this.handler.acceptMessage(payload);
+			dispatched++;
+		}
+
+		Channel channel = this.channel;
+		if (this.inboundPaused && channel != null) {
+			this.inboundPaused = false;
+			channel.config().setAutoRead(true);
+		}
+
+		return dispatched;
+	}
+
+	public int inboundQueueSize() {
+		return this.inboundSize.get();
 	}
 
 	private void acceptCloseFrame(CloseWebSocketFrame closeFrame) {
 		if (this.channel != null) {
 			this.handler.acceptClosed(closeFrame.statusCode(), closeFrame.reasonText());
 			this.channel = null;
+			this.releaseQueued();
 		}
 	}
 
 	@Override
 	public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+		if (this.offeredSubprotocols && !this.opened.isDone() && isSubprotocolRejection(cause)) {
+			// connect() retries without subprotocols, so this connection is discarded without telling the handler
+			this.opened.completeExceptionally(cause);
+			this.channel = null;
+			ctx.close();
+			return;
+		}
+
+		this.opened.completeExceptionally(cause);
 		if (this.channel != null) {
 			this.handler.acceptError(cause);
 			this.channel.writeAndFlush(new CloseWebSocketFrame());
 			ctx.close();
 
 			this.channel = null;
+			this.releaseQueued();
 		}
 	}
 
 	@Override
 	public void channelInactive(ChannelHandlerContext ctx) {
+		this.opened.completeExceptionally(new ClosedChannelException());
 		if (this.channel != null) {
 			this.handler.acceptClosed(-1, null);
 			this.channel = null;
+			this.releaseQueued();
 		}
 	}
 
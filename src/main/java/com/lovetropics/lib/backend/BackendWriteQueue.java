@@ -0,0 +1,154 @@
+package com.lovetropics.lib.backend;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.EventLoop;
+
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+final class BackendWriteQueue {
+	private final int capacity;
+	private final BackendConnectionOptions.OverflowPolicy policy;
+	private final long blockTimeoutNanos;
+	private final EventLoop eventLoop;
+	private final BackendMetrics metrics;
+
+	private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+	private final Map<String, Entry> entriesByKey = new HashMap<>();
+	private int bytes;
+
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+
+	BackendWriteQueue(BackendConnectionOptions options, EventLoop eventLoop, BackendMetrics metrics) {
+		this.eventLoop = eventLoop;
+		this.metrics = metrics;
+		this.capacity = options.writeQueueCapacity();
+		this.policy = options.overflowPolicy();
+		this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(options.blockTimeoutMillis());
+	}
+
+	// Takes ownership of the buffer, releasing it if it is dropped
+	synchronized boolean offer(ByteBuf buffer, @Nullable String key) {
+		if (this.policy == BackendConnectionOptions.OverflowPolicy.COALESCE && key != null) {
+			Entry existing = this.entriesByKey.get(key);
+			if (existing != null) {
+				this.bytes += buffer.readableBytes() - existing.buffer.readableBytes();
+				existing.buffer.release();
+				existing.buffer = buffer;
+				this.coalesced.incrementAndGet();
+				return true;
+			}
+		}
+
+		if (this.entries.size() >= this.capacity && !this.makeRoom()) {
+			buffer.release();
+			this.dropped.incrementAndGet();
+			this.metrics.recordDropped();
+			return false;
+		}
+
+		Entry entry = new Entry(buffer, key);
+		this.entries.add(entry);
+		this.bytes += buffer.readableBytes();
+		if (key != null && this.policy == BackendConnectionOptions.OverflowPolicy.COALESCE) {
+			this.entriesByKey.put(key, entry);
+		}
+		return true;
+	}
+
+	private boolean makeRoom() {
+		switch (this.policy) {
+			case DROP_OLDEST, COALESCE -> {
+				ByteBuf oldest = this.poll();
+				if (oldest == null) {
+					return false;
+				}
+				oldest.release();
+				this.dropped.incrementAndGet();
+				this.metrics.recordDropped();
+				return true;
+			}
+			case BLOCK -> {
+				// Only the event loop drains the queue, so waiting on it would stall all I/O until the timeout: drop the new payload instead
+				if (this.eventLoop.inEventLoop()) {
+					return false;
+				}
+				long deadline = System.nanoTime() + this.blockTimeoutNanos;
+				long remaining;
+				while (this.entries.size() >= this.capacity && (remaining = deadline - System.nanoTime()) > 0) {
+					try {
+						TimeUnit.NANOSECONDS.timedWait(this, remaining);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return false;
+					}
+				}
+				return this.entries.size() < this.capacity;
+			}
+			default -> {
+				return false;
+			}
+		}
+	}
+
+	@Nullable
+	synchronized ByteBuf poll() {
+		Entry entry = this.entries.poll();
+		if (entry == null) {
+			return null;
+		}
+
+		if (entry.key != null && this.entriesByKey.get(entry.key) == entry) {
+			this.entriesByKey.remove(entry.key);
+		}
+		this.bytes -= entry.buffer.readableBytes();
+
+		if (this.policy == BackendConnectionOptions.OverflowPolicy.BLOCK) {
+			this.notifyAll();
+		}
+		return entry.buffer;
+	}
+
+	synchronized void clear() {
+		ByteBuf buffer;
+		while ((buffer = this.poll()) != null) {
+			buffer.release();
+		}
+	}
+
+	synchronized boolean isEmpty() {
+		return this.entries.isEmpty();
+	}
+
+	synchronized int size() {
+		return this.entries.size();
+	}
+
+	synchronized int bytes() {
+		return this.bytes;
+	}
+
+	long dropped() {
+		return this.dropped.get();
+	}
+
+	long coalesced() {
+		return this.coalesced.get();
+	}
+
+	private static final class Entry {
+		private ByteBuf buffer;
+		@Nullable
+		private final String key;
+
+		private Entry(ByteBuf buffer, @Nullable String key) {
+			this.buffer = buffer;
+			this.key = key;
+		}
+	}
+}
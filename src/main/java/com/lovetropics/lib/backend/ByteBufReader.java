@@ -0,0 +1,94 @@
+package com.lovetropics.lib.backend;
+
+import io.netty.buffer.ByteBuf;
+
+import java.io.Reader;
+
+// Decodes UTF-8 directly from a ByteBuf, without the 8 KB byte buffer that InputStreamReader allocates for each frame
+final class ByteBufReader extends Reader {
+	private static final char REPLACEMENT = '\uFFFD';
+
+	private final ByteBuf buffer;
+	// The second half of a surrogate pair that did not fit into the previous read
+	private char lowSurrogate;
+
+	ByteBufReader(ByteBuf buffer) {
+		this.buffer = buffer;
+	}
+
+	@Override
+	public int read(char[] chars, int offset, int length) {
+		if (length == 0) {
+			return 0;
+		}
+
+		ByteBuf buffer = this.buffer;
+		int count = 0;
+		if (this.lowSurrogate != 0) {
+			chars[offset + count++] = this.lowSurrogate;
+			this.lowSurrogate = 0;
+		}
+
+		while (count < length && buffer.isReadable()) {
+			int b = buffer.readByte();
+			if (b >= 0) {
+				chars[offset + count++] = (char) b;
+				continue;
+			}
+
+			int codePoint = this.readMultiByte(b & 0xFF);
+			if (Character.isBmpCodePoint(codePoint)) {
+				chars[offset + count++] = (char) codePoint;
+			} else {
+				chars[offset + count++] = Character.highSurrogate(codePoint);
+				char low = Character.lowSurrogate(codePoint);
+				if (count < length) {
+					chars[offset + count++] = low;
+				} else {
+					this.lowSurrogate = low;
+				}
+			}
+		}
+
+		return count > 0 ? count : -1;
+	}
+
+	private int readMultiByte(int lead) {
+		int extra;
+		int codePoint;
+		int min;
+		if ((lead & 0xE0) == 0xC0) {
+			extra = 1;
+			codePoint = lead & 0x1F;
+			min = 0x80;
+		} else if ((lead & 0xF0) == 0xE0) {
+			extra = 2;
+			codePoint = lead & 0x0F;
+			min = 0x800;
+		} else if ((lead & 0xF8) == 0xF0) {
+			extra = 3;
+			codePoint = lead & 0x07;
+			min = 0x10000;
+		} else {
+			return REPLACEMENT;
+		}
+
+		ByteBuf buffer = this.buffer;
+		for (int i = 0; i < extra; i++) {
+			// Leave a byte that does not continue the sequence to be read as the start of the next character
+			if (!buffer.isReadable() || (buffer.getByte(buffer.readerIndex()) & 0xC0) != 0x80) {
+				return REPLACEMENT;
+			}
+			codePoint = (codePoint << 6) | (buffer.readByte() & 0x3F);
+		}
+
+		if (codePoint < min || codePoint > Character.MAX_CODE_POINT || Character.isSurrogate((char) codePoint) && Character.isBmpCodePoint(codePoint)) {
+			return REPLACEMENT;
+		}
+		return codePoint;
+	}
+
+	@Override
+	public void close() {
+	}
+}
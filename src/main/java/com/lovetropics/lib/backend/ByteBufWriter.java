@@ -0,0 +1,112 @@
+package com.lovetropics.lib.backend;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+
+import java.io.Writer;
+
+// Encodes characters as UTF-8 directly into a ByteBuf, without an intermediate String or encoder buffer
+final class ByteBufWriter extends Writer {
+	private static final byte REPLACEMENT = '?';
+
+	private final ByteBuf buffer;
+	// A high surrogate that ended the previous chunk, to be joined with a low surrogate at the start of the next
+	private char highSurrogate;
+
+	ByteBufWriter(ByteBuf buffer) {
+		this.buffer = buffer;
+	}
+
+	@Override
+	public void write(int c) {
+		this.writeChar((char) c);
+	}
+
+	// JsonWriter writes strings, so character arrays are rare enough to encode one at a time
+	@Override
+	public void write(char[] chars, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			this.writeChar(chars[i]);
+		}
+	}
+
+	@Override
+	public void write(String string, int offset, int length) {
+		this.writeSequence(string, offset, offset + length);
+	}
+
+	@Override
+	public Writer append(CharSequence sequence) {
+		this.writeSequence(sequence, 0, sequence.length());
+		return this;
+	}
+
+	@Override
+	public Writer append(CharSequence sequence, int start, int end) {
+		this.writeSequence(sequence, start, end);
+		return this;
+	}
+
+	private void writeSequence(CharSequence sequence, int start, int end) {
+		if (start >= end) {
+			return;
+		}
+
+		if (this.highSurrogate != 0) {
+			this.writeChar(sequence.charAt(start++));
+		}
+
+		if (start < end && Character.isHighSurrogate(sequence.charAt(end - 1))) {
+			this.highSurrogate = sequence.charAt(--end);
+		}
+
+		if (start < end) {
+			ByteBufUtil.writeUtf8(this.buffer, sequence, start, end);
+		}
+	}
+
+	private void writeChar(char c) {
+		ByteBuf buffer = this.buffer;
+
+		if (this.highSurrogate != 0) {
+			char high = this.highSurrogate;
+			this.highSurrogate = 0;
+			if (Character.isLowSurrogate(c)) {
+				int codePoint = Character.toCodePoint(high, c);
+				buffer.writeByte(0xF0 | (codePoint >> 18));
+				buffer.writeByte(0x80 | ((codePoint >> 12) & 0x3F));
+				buffer.writeByte(0x80 | ((codePoint >> 6) & 0x3F));
+				buffer.writeByte(0x80 | (codePoint & 0x3F));
+				return;
+			}
+			buffer.writeByte(REPLACEMENT);
+		}
+
+		if (c < 0x80) {
+			buffer.writeByte(c);
+		} else if (c < 0x800) {
+			buffer.writeByte(0xC0 | (c >> 6));
+			buffer.writeByte(0x80 | (c & 0x3F));
+		} else if (Character.isHighSurrogate(c)) {
+			this.highSurrogate = c;
+		} else if (Character.isLowSurrogate(c)) {
+			buffer.writeByte(REPLACEMENT);
+		} else {
+			buffer.writeByte(0xE0 | (c >> 12));
+			buffer.writeByte(0x80 | ((c >> 6) & 0x3F));
+			buffer.writeByte(0x80 | (c & 0x3F));
+		}
+	}
+
+	@Override
+	public void flush() {
+	}
+
+	@Override
+	public void close() {
+		if (this.highSurrogate != 0) {
+			this.highSurrogate = 0;
+			this.buffer.writeByte(REPLACEMENT);
+		}
+	}
+}
@@ -0,0 +1,317 @@
+package com.lovetropics.lib.backend;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.internal.LazilyParsedNumber;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// Encodes the JSON data model as CBOR (RFC 8949): numbers are sent as binary integers and floats rather than text
+final class CborPayloadFormat implements BackendPayloadFormat {
+	static final CborPayloadFormat INSTANCE = new CborPayloadFormat();
+
+	private static final int MAJOR_UNSIGNED = 0;
+	private static final int MAJOR_NEGATIVE = 1;
+	private static final int MAJOR_BYTES = 2;
+	private static final int MAJOR_TEXT = 3;
+	private static final int MAJOR_ARRAY = 4;
+	private static final int MAJOR_MAP = 5;
+	private static final int MAJOR_TAG = 6;
+	private static final int MAJOR_SIMPLE = 7;
+
+	private static final int FALSE = 0xF4;
+	private static final int TRUE = 0xF5;
+	private static final int NULL = 0xF6;
+	private static final int UNDEFINED = 0xF7;
+	private static final int HALF_FLOAT = 0xF9;
+	private static final int SINGLE_FLOAT = 0xFA;
+	private static final int DOUBLE_FLOAT = 0xFB;
+	private static final int INDEFINITE_ARRAY = 0x9F;
+	private static final int BREAK = 0xFF;
+
+	private static final int INDEFINITE = 31;
+
+	private CborPayloadFormat() {
+	}
+
+	@Override
+	public String subprotocol() {
+		return "lt-cbor";
+	}
+
+	@Override
+	public void encode(JsonObject payload, ByteBuf buffer) {
+		write(payload, buffer);
+	}
+
+	@Override
+	public void decode(ByteBuf buffer, Consumer<JsonObject> consumer) throws IOException {
+		int initial = buffer.getUnsignedByte(buffer.readerIndex());
+		if (initial >> 5 != MAJOR_ARRAY) {
+			consumer.accept(read(buffer).getAsJsonObject());
+			return;
+		}
+
+		buffer.skipBytes(1);
+		long length = readArgument(buffer, initial & 0x1F);
+		if (length == -1) {
+			while (buffer.getUnsignedByte(buffer.readerIndex()) != BREAK) {
+				consumer.accept(read(buffer).getAsJsonObject());
+			}
+			buffer.skipBytes(1);
+		} else {
+			for (long i = 0; i < length; i++) {
+				consumer.accept(read(buffer).getAsJsonObject());
+			}
+		}
+	}
+
+	@Override
+	public WebSocketFrame frame(ByteBuf buffer) {
+		return new BinaryWebSocketFrame(buffer);
+	}
+
+	@Override
+	public void beginBatch(ByteBuf batch) {
+		batch.writeByte(INDEFINITE_ARRAY);
+	}
+
+	@Override
+	public void separateBatch(ByteBuf batch) {
+	}
+
+	@Override
+	public void endBatch(ByteBuf batch) {
+		batch.writeByte(BREAK);
+	}
+
+	private static void write(JsonElement element, ByteBuf buffer) {
+		if (element.isJsonObject()) {
+			JsonObject object = element.getAsJsonObject();
+			writeHead(buffer, MAJOR_MAP, object.size());
+			for (Map.Entry<String, JsonElement> entry : object.entrySet()) {
+				writeText(buffer, entry.getKey());
+				write(entry.getValue(), buffer);
+			}
+		} else if (element.isJsonArray()) {
+			JsonArray array = element.getAsJsonArray();
+			writeHead(buffer, MAJOR_ARRAY, array.size());
+			for (JsonElement child : array) {
+				write(child, buffer);
+			}
+		} else if (element.isJsonPrimitive()) {
+			writePrimitive(buffer, element.getAsJsonPrimitive());
+		} else {
+			buffer.writeByte(NULL);
+		}
+	}
+
+	private static void writePrimitive(ByteBuf buffer, JsonPrimitive primitive) {
+		if (primitive.isBoolean()) {
+			buffer.writeByte(primitive.getAsBoolean() ? TRUE : FALSE);
+		} else if (primitive.isString()) {
+			writeText(buffer, primitive.getAsString());
+		} else {
+			writeNumber(buffer, primitive.getAsNumber());
+		}
+	}
+
+	private static void writeNumber(ByteBuf buffer, Number number) {
+		if (number instanceof Integer || number instanceof Long || number instanceof Short || number instanceof Byte) {
+			writeInteger(buffer, number.longValue());
+			return;
+		}
+
+		if (number instanceof LazilyParsedNumber || number instanceof BigInteger) {
+			String text = number.toString();
+			if (text.indexOf('.') == -1 && text.indexOf('e') == -1 && text.indexOf('E') == -1) {
+				try {
+					writeInteger(buffer, Long.parseLong(text));
+					return;
+				} catch (NumberFormatException ignored) {
+				}
+			}
+		}
+
+		double value = number.doubleValue();
+		float single = (float) value;
+		if (single == value || Double.isNaN(value)) {
+			buffer.writeByte(SINGLE_FLOAT);
+			buffer.writeFloat(single);
+		} else {
+			buffer.writeByte(DOUBLE_FLOAT);
+			buffer.writeDouble(value);
+		}
+	}
+
+	private static void writeInteger(ByteBuf buffer, long value) {
+		if (value >= 0) {
+			writeHead(buffer, MAJOR_UNSIGNED, value);
+		} else {
+			writeHead(buffer, MAJOR_NEGATIVE, -1 - value);
+		}
+	}
+
+	private static void writeText(ByteBuf buffer, String text) {
+		writeHead(buffer, MAJOR_TEXT, ByteBufUtil.utf8Bytes(text));
+		ByteBufUtil.writeUtf8(buffer, text);
+	}
+
+	private static void writeHead(ByteBuf buffer, int major, long argument) {
+		int type = major << 5;
+		if (argument < 24) {
+			buffer.writeByte(type | (int) argument);
+		} else if (argument <= 0xFF) {
+			buffer.writeByte(type | 24);
+			buffer.writeByte((int) argument);
+		} else if (argument <= 0xFFFF) {
+			buffer.writeByte(type | 25);
+			buffer.writeShort((int) argument);
+		} else if (argument <= 0xFFFFFFFFL) {
+			buffer.writeByte(type | 26);
+			buffer.writeInt((int) argument);
+		} else {
+			buffer.writeByte(type | 27);
+			buffer.writeLong(argument);
+		}
+	}
+
+	private static JsonElement read(ByteBuf buffer) throws IOException {
+		int initial = buffer.readUnsignedByte();
+		int major = initial >> 5;
+		int info = initial & 0x1F;
+
+		switch (major) {
+			case MAJOR_UNSIGNED: {
+				long value = readArgument(buffer, info);
+				return value >= 0 ? new JsonPrimitive(value) : new JsonPrimitive(new BigInteger(Long.toUnsignedString(value)));
+			}
+			case MAJOR_NEGATIVE: {
+				long value = readArgument(buffer, info);
+				return value >= 0 ? new JsonPrimitive(-1 - value) : new JsonPrimitive(BigInteger.ONE.negate().subtract(new BigInteger(Long.toUnsignedString(value))));
+			}
+			case MAJOR_BYTES:
+				return new JsonPrimitive(Base64.getEncoder().encodeToString(readBytes(buffer, info, MAJOR_BYTES)));
+			case MAJOR_TEXT:
+				return new JsonPrimitive(new String(readBytes(buffer, info, MAJOR_TEXT), StandardCharsets.UTF_8));
+			case MAJOR_ARRAY: {
+				JsonArray array = new JsonArray();
+				long length = readArgument(buffer, info);
+				if (length == -1) {
+					while (!readBreak(buffer)) {
+						array.add(read(buffer));
+					}
+				} else {
+					for (long i = 0; i < length; i++) {
+						array.add(read(buffer));
+					}
+				}
+				return array;
+			}
+			case MAJOR_MAP: {
+				JsonObject object = new JsonObject();
+				long length = readArgument(buffer, info);
+				if (length == -1) {
+					while (!readBreak(buffer)) {
+						object.add(read(buffer).getAsString(), read(buffer));
+					}
+				} else {
+					for (long i = 0; i < length; i++) {
+						object.add(read(buffer).getAsString(), read(buffer));
+					}
+				}
+				return object;
+			}
+			case MAJOR_TAG:
+				readArgument(buffer, info);
+				return read(buffer);
+			default:
+				return readSimple(buffer, initial);
+		}
+	}
+
+	private static JsonElement readSimple(ByteBuf buffer, int initial) throws IOException {
+		return switch (initial) {
+			case FALSE -> new JsonPrimitive(false);
+			case TRUE -> new JsonPrimitive(true);
+			case NULL, UNDEFINED -> JsonNull.INSTANCE;
+			case HALF_FLOAT -> new JsonPrimitive(halfToFloat(buffer.readUnsignedShort()));
+			case SINGLE_FLOAT -> new JsonPrimitive(buffer.readFloat());
+			case DOUBLE_FLOAT -> new JsonPrimitive(buffer.readDouble());
+			default -> throw new IOException("Unsupported CBOR simple value: " + initial);
+		};
+	}
+
+	private static byte[] readBytes(ByteBuf buffer, int info, int major) throws IOException {
+		long length = readArgument(buffer, info);
+		if (length != -1) {
+			byte[] bytes = new byte[Math.toIntExact(length)];
+			buffer.readBytes(bytes);
+			return bytes;
+		}
+
+		// Indefinite-length strings are a sequence of definite-length chunks of the same type
+		ByteBuf chunks = buffer.alloc().buffer();
+		try {
+			while (!readBreak(buffer)) {
+				int initial = buffer.readUnsignedByte();
+				if (initial >> 5 != major) {
+					throw new IOException("Unexpected chunk type in indefinite-length CBOR string");
+				}
+				chunks.writeBytes(buffer, Math.toIntExact(readArgument(buffer, initial & 0x1F)));
+			}
+			return ByteBufUtil.getBytes(chunks);
+		} finally {
+			chunks.release();
+		}
+	}
+
+	private static boolean readBreak(ByteBuf buffer) {
+		if (buffer.getUnsignedByte(buffer.readerIndex()) == BREAK) {
+			buffer.skipBytes(1);
+			return true;
+		}
+		return false;
+	}
+
+	// Returns -1 for indefinite length
+	private static long readArgument(ByteBuf buffer, int info) throws IOException {
+		if (info < 24) {
+			return info;
+		}
+		return switch (info) {
+			case 24 -> buffer.readUnsignedByte();
+			case 25 -> buffer.readUnsignedShort();
+			case 26 -> buffer.readUnsignedInt();
+			case 27 -> buffer.readLong();
+			case INDEFINITE -> -1;
+			default -> throw new IOException("Invalid CBOR additional info: " + info);
+		};
+	}
+
+	private static float halfToFloat(int half) {
+		int exponent = (half >> 10) & 0x1F;
+		int mantissa = half & 0x3FF;
+		float value;
+		if (exponent == 0) {
+			value = mantissa * 0x1p-24f;
+		} else if (exponent == 0x1F) {
+			value = mantissa == 0 ? Float.POSITIVE_INFINITY : Float.NaN;
+		} else {
+			value = (1.0f + mantissa / 1024.0f) * (float) Math.pow(2, exponent - 15);
+		}
+		return (half & 0x8000) != 0 ? -value : value;
+	}
+}
@@ -0,0 +1,69 @@
+package com.lovetropics.lib.backend;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+final class JsonPayloadFormat implements BackendPayloadFormat {
+	static final JsonPayloadFormat INSTANCE = new JsonPayloadFormat();
+
+	private static final Gson GSON = new Gson();
+
+	private JsonPayloadFormat() {
+	}
+
+	@Override
+	public String subprotocol() {
+		return "lt-json";
+	}
+
+	@Override
+	public void encode(JsonObject payload, ByteBuf buffer) {
+		try (ByteBufWriter writer = new ByteBufWriter(buffer)) {
+			GSON.toJson(payload, writer);
+		}
+	}
+
+	@Override
+	public void decode(ByteBuf buffer, Consumer<JsonObject> consumer) throws IOException {
+		try (JsonReader reader = new JsonReader(new ByteBufReader(buffer))) {
+			if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+				reader.beginArray();
+				while (reader.hasNext()) {
+					consumer.accept(JsonParser.parseReader(reader).getAsJsonObject());
+				}
+				reader.endArray();
+			} else {
+				consumer.accept(JsonParser.parseReader(reader).getAsJsonObject());
+			}
+		}
+	}
+
+	@Override
+	public WebSocketFrame frame(ByteBuf buffer) {
+		return new TextWebSocketFrame(buffer);
+	}
+
+	@Override
+	public void beginBatch(ByteBuf batch) {
+		batch.writeByte('[');
+	}
+
+	@Override
+	public void separateBatch(ByteBuf batch) {
+		batch.writeByte(',');
+	}
+
+	@Override
+	public void endBatch(ByteBuf batch) {
+		batch.writeByte(']');
+	}
+}
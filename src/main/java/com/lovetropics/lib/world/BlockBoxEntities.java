@@ -0,0 +1,55 @@
+package com.lovetropics.lib.world;
+
+import com.lovetropics.lib.BlockBox;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.util.AbortableIterationConsumer;
+import net.minecraft.world.entity.Entity;
+import net.minecraft.world.level.entity.EntityTypeTest;
+
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+// Queries the entity section storage directly, visiting only sections that overlap the box and without collecting into a list
+public final class BlockBoxEntities {
+    private BlockBoxEntities() {
+    }
+
+    public static void forEach(ServerLevel level, BlockBox box, Consumer<Entity> consumer) {
+        level.getEntities().get(box.asAabb(), entity -> {
+            if (contains(box, entity)) {
+                consumer.accept(entity);
+            }
+        });
+    }
+
+    public static <T extends Entity> void forEach(ServerLevel level, BlockBox box, EntityTypeTest<Entity, T> type, Consumer<? super T> consumer) {
+        level.getEntities().get(type, box.asAabb(), entity -> {
+            if (contains(box, entity)) {
+                consumer.accept(entity);
+            }
+            return AbortableIterationConsumer.Continuation.CONTINUE;
+        });
+    }
+
+    public static <T extends Entity> boolean anyMatch(ServerLevel level, BlockBox box, EntityTypeTest<Entity, T> type, Predicate<? super T> predicate) {
+        boolean[] found = new boolean[1];
+        level.getEntities().get(type, box.asAabb(), entity -> {
+            if (contains(box, entity) && predicate.test(entity)) {
+                found[0] = true;
+                return AbortableIterationConsumer.Continuation.ABORT;
+            }
+            return AbortableIterationConsumer.Continuation.CONTINUE;
+        });
+        return found[0];
+    }
+
+    public static <T extends Entity> int count(ServerLevel level, BlockBox box, EntityTypeTest<Entity, T> type) {
+        int[] count = new int[1];
+        forEach(level, box, type, entity -> count[0]++);
+        return count[0];
+    }
+
+    private static boolean contains(BlockBox box, Entity entity) {
+        return box.contains(entity.getBlockX(), entity.getBlockY(), entity.getBlockZ());
+    }
+}
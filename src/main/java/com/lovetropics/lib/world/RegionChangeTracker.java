@@ -0,0 +1,98 @@
+package com.lovetropics.lib.world;
+
+import com.lovetropics.lib.BlockBox;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+import it.unimi.dsi.fastutil.longs.LongSets;
+import net.minecraft.core.BlockPos;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.block.state.BlockState;
+
+import javax.annotation.Nullable;
+
+// Records which positions inside a box have changed so that only those need to be reverted
+public final class RegionChangeTracker {
+    private final BlockBox box;
+    @Nullable
+    private final RegionSnapshot baseline;
+
+    private final LongSet changed = new LongOpenHashSet();
+    private final Long2ObjectMap<BlockState> originals = new Long2ObjectOpenHashMap<>();
+
+    private boolean restoring;
+
+    // Reverts positions to the states they had when they were first changed
+    public RegionChangeTracker(BlockBox box) {
+        this.box = box;
+        this.baseline = null;
+    }
+
+    // Reverts positions to the states (and block entities) captured in the snapshot
+    public RegionChangeTracker(RegionSnapshot baseline) {
+        this.box = baseline.box();
+        this.baseline = baseline;
+    }
+
+    public BlockBox box() {
+        return this.box;
+    }
+
+    public void onBlockChanged(BlockPos pos, BlockState previous) {
+        if (this.restoring || !this.box.contains(pos)) {
+            return;
+        }
+        long key = pos.asLong();
+        if (this.changed.add(key) && this.baseline == null) {
+            this.originals.put(key, previous);
+        }
+    }
+
+    public void markChanged(BlockPos pos) {
+        if (this.baseline == null) {
+            throw new IllegalStateException("Cannot mark a change without its previous state when there is no baseline snapshot");
+        }
+        if (!this.restoring && this.box.contains(pos)) {
+            this.changed.add(pos.asLong());
+        }
+    }
+
+    public boolean isChanged(BlockPos pos) {
+        return this.changed.contains(pos.asLong());
+    }
+
+    public LongSet changed() {
+        return LongSets.unmodifiable(this.changed);
+    }
+
+    public int changeCount() {
+        return this.changed.size();
+    }
+
+    public void restore(ServerLevel level, int flags) {
+        this.restoring = true;
+        try {
+            BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+            LongIterator iterator = this.changed.iterator();
+            while (iterator.hasNext()) {
+                long key = iterator.nextLong();
+                pos.set(key);
+                if (this.baseline != null) {
+                    this.baseline.restore(level, pos, flags);
+                } else {
+                    level.setBlock(pos, this.originals.get(key), flags);
+                }
+            }
+        } finally {
+            this.restoring = false;
+        }
+        this.clear();
+    }
+
+    public void clear() {
+        this.changed.clear();
+        this.originals.clear();
+    }
+}
@@ -0,0 +1,132 @@
+package com.lovetropics.lib.world;
+
+import com.lovetropics.lib.BlockBox;
+import com.lovetropics.lib.MutableBlockBox;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.server.level.ServerLevel;
+
+import java.util.concurrent.CompletableFuture;
+
+public final class RegionJob {
+    // Only check the clock every 256 blocks
+    private static final int CLOCK_CHECK_MASK = 0xFF;
+
+    private final ServerLevel level;
+    private final BlockBox box;
+    private final RegionOperation operation;
+    private final long[] sections;
+    private final long volume;
+
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+    private final MutableBlockBox bounds = new MutableBlockBox();
+    private final BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+    private int sectionIndex = -1;
+    private int x;
+    private int y;
+    private int z;
+    private volatile long processed;
+
+    RegionJob(ServerLevel level, BlockBox box, RegionOperation operation) {
+        this.level = level;
+        this.box = box;
+        this.operation = operation;
+
+        LongArrayList sections = new LongArrayList();
+        BlockBox clipped = box.clipToHeight(level);
+        if (clipped != null) {
+            clipped.forEachSection(sections::add);
+        }
+        this.sections = sections.toLongArray();
+        this.volume = clipped != null ? clipped.volume() : 0;
+    }
+
+    public BlockBox box() {
+        return this.box;
+    }
+
+    public CompletableFuture<Void> future() {
+        return this.future;
+    }
+
+    public long processed() {
+        return this.processed;
+    }
+
+    public long volume() {
+        return this.volume;
+    }
+
+    public float progress() {
+        return this.volume > 0 ? (float) ((double) this.processed / this.volume) : 1.0f;
+    }
+
+    public boolean cancel() {
+        return this.future.cancel(false);
+    }
+
+    public boolean isDone() {
+        return this.future.isDone();
+    }
+
+    // Returns true once the job has finished, or false if it ran out of time
+    boolean run(long deadline) {
+        if (this.future.isDone()) {
+            return true;
+        }
+
+        try {
+            long processed = this.processed;
+            while (this.sectionIndex < this.sections.length) {
+                if (this.sectionIndex == -1 || this.y > this.bounds.maxY()) {
+                    if (++this.sectionIndex >= this.sections.length) {
+                        break;
+                    }
+                    this.beginSection(this.sections[this.sectionIndex]);
+                }
+
+                MutableBlockBox bounds = this.bounds;
+                while (this.y <= bounds.maxY()) {
+                    this.operation.apply(this.level, this.pos.set(this.x, this.y, this.z));
+                    processed++;
+
+                    if (++this.x > bounds.maxX()) {
+                        this.x = bounds.minX();
+                        if (++this.z > bounds.maxZ()) {
+                            this.z = bounds.minZ();
+                            this.y++;
+                        }
+                    }
+
+                    if ((processed & CLOCK_CHECK_MASK) == 0 && System.nanoTime() >= deadline) {
+                        this.processed = processed;
+                        return false;
+                    }
+                }
+            }
+            this.processed = processed;
+        } catch (Throwable t) {
+            this.future.completeExceptionally(t);
+            return true;
+        }
+
+        this.future.complete(null);
+        return true;
+    }
+
+    private void beginSection(long section) {
+        int sectionX = SectionPos.x(section);
+        int sectionY = SectionPos.y(section);
+        int sectionZ = SectionPos.z(section);
+        this.bounds.set(
+                SectionPos.sectionToBlockCoord(sectionX), SectionPos.sectionToBlockCoord(sectionY), SectionPos.sectionToBlockCoord(sectionZ),
+                SectionPos.sectionToBlockCoord(sectionX, SectionPos.SECTION_MAX_INDEX), SectionPos.sectionToBlockCoord(sectionY, SectionPos.SECTION_MAX_INDEX), SectionPos.sectionToBlockCoord(sectionZ, SectionPos.SECTION_MAX_INDEX)
+        );
+        this.bounds.intersect(this.box);
+        this.x = this.bounds.minX();
+        this.y = this.bounds.minY();
+        this.z = this.bounds.minZ();
+    }
+}
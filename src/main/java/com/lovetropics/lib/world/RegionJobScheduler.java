@@ -0,0 +1,58 @@
+package com.lovetropics.lib.world;
+
+import com.lovetropics.lib.BlockBox;
+import net.minecraft.server.level.ServerLevel;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+// Runs region operations in submission order, spending at most the given budget per tick
+public final class RegionJobScheduler {
+    private final long budgetNanos;
+    private final Deque<RegionJob> jobs = new ArrayDeque<>();
+
+    public RegionJobScheduler(long budgetNanos) {
+        this.budgetNanos = budgetNanos;
+    }
+
+    public static RegionJobScheduler withBudget(long budget, TimeUnit unit) {
+        return new RegionJobScheduler(unit.toNanos(budget));
+    }
+
+    public RegionJob submit(ServerLevel level, BlockBox box, RegionOperation operation) {
+        RegionJob job = new RegionJob(level, box, operation);
+        this.jobs.add(job);
+        return job;
+    }
+
+    public void tick() {
+        long deadline = System.nanoTime() + this.budgetNanos;
+
+        RegionJob job;
+        while ((job = this.jobs.peek()) != null) {
+            if (!job.run(deadline)) {
+                break;
+            }
+            this.jobs.poll();
+            if (System.nanoTime() >= deadline) {
+                break;
+            }
+        }
+    }
+
+    public void cancelAll() {
+        RegionJob job;
+        while ((job = this.jobs.poll()) != null) {
+            job.cancel();
+        }
+    }
+
+    public int pendingJobs() {
+        return this.jobs.size();
+    }
+
+    public boolean isIdle() {
+        return this.jobs.isEmpty();
+    }
+}
@@ -0,0 +1,24 @@
+package com.lovetropics.lib.world;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.state.BlockState;
+
+@FunctionalInterface
+public interface RegionOperation {
+    void apply(ServerLevel level, BlockPos.MutableBlockPos pos);
+
+    static RegionOperation fill(BlockState state) {
+        return fill(state, Block.UPDATE_CLIENTS);
+    }
+
+    static RegionOperation fill(BlockState state, int flags) {
+        return (level, pos) -> level.setBlock(pos, state, flags);
+    }
+
+    static RegionOperation clear() {
+        return fill(Blocks.AIR.defaultBlockState());
+    }
+}
@@ -0,0 +1,454 @@
+package com.lovetropics.lib.world;
+
+import com.lovetropics.lib.BlockBox;
+import com.lovetropics.lib.MutableBlockBox;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.NbtAccounter;
+import net.minecraft.nbt.NbtIo;
+import net.minecraft.nbt.NbtUtils;
+import net.minecraft.server.level.ServerLevel;
+import net.minecraft.util.Mth;
+import net.minecraft.util.SimpleBitStorage;
+import net.minecraft.world.level.ChunkPos;
+import net.minecraft.world.level.block.Block;
+import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.entity.BlockEntity;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// Stores each section of a box as a local palette with bit-packed indices, in the same way as vanilla's PalettedContainer
+public final class RegionSnapshot {
+    private static final int FILE_MAGIC = 0x4C545253;
+    private static final int FILE_VERSION = 1;
+
+    private final BlockBox box;
+    private final Long2ObjectMap<Section> sections;
+    private final Long2ObjectMap<CompoundTag> blockEntities;
+    // Keyed by section, so that restoring one section only visits the block entities inside it
+    private final Long2ObjectMap<Long2ObjectMap<CompoundTag>> blockEntitiesBySection;
+
+    private RegionSnapshot(BlockBox box, Long2ObjectMap<Section> sections, Long2ObjectMap<CompoundTag> blockEntities) {
+        this.box = box;
+        this.sections = sections;
+        this.blockEntities = blockEntities;
+        this.blockEntitiesBySection = groupBySection(blockEntities);
+    }
+
+    private static Long2ObjectMap<Long2ObjectMap<CompoundTag>> groupBySection(Long2ObjectMap<CompoundTag> blockEntities) {
+        Long2ObjectMap<Long2ObjectMap<CompoundTag>> bySection = new Long2ObjectOpenHashMap<>();
+        for (Long2ObjectMap.Entry<CompoundTag> entry : blockEntities.long2ObjectEntrySet()) {
+            long sectionPos = SectionPos.asLong(BlockPos.of(entry.getLongKey()));
+            bySection.computeIfAbsent(sectionPos, p -> new Long2ObjectOpenHashMap<>()).put(entry.getLongKey(), entry.getValue());
+        }
+        return bySection;
+    }
+
+    public static RegionSnapshot capture(ServerLevel level, BlockBox box) {
+        Long2ObjectMap<Section> sections = new Long2ObjectLinkedOpenHashMap<>();
+        Long2ObjectMap<CompoundTag> blockEntities = new Long2ObjectOpenHashMap<>();
+
+        int[] indices = new int[LevelChunkSection.SECTION_SIZE];
+        Reference2IntMap<BlockState> paletteIds = new Reference2IntOpenHashMap<>();
+        paletteIds.defaultReturnValue(-1);
+        List<BlockState> palette = new ObjectArrayList<>();
+
+        SectionScanner.forEachSection(level, box, (chunk, section, bounds) -> {
+            long sectionPos = SectionPos.asLong(
+                    SectionPos.blockToSectionCoord(bounds.minX()),
+                    SectionPos.blockToSectionCoord(bounds.minY()),
+                    SectionPos.blockToSectionCoord(bounds.minZ())
+            );
+
+            if (section.hasOnlyAir()) {
+                sections.put(sectionPos, new Section(bounds, new BlockState[] { Blocks.AIR.defaultBlockState() }, null));
+                return;
+            }
+
+            paletteIds.clear();
+            palette.clear();
+
+            int count = 0;
+            for (int y = bounds.minY(); y <= bounds.maxY(); y++) {
+                for (int z = bounds.minZ(); z <= bounds.maxZ(); z++) {
+                    for (int x = bounds.minX(); x <= bounds.maxX(); x++) {
+                        BlockState state = section.getBlockState(SectionPos.sectionRelative(x), SectionPos.sectionRelative(y), SectionPos.sectionRelative(z));
+                        int id = paletteIds.getInt(state);
+                        if (id == -1) {
+                            id = palette.size();
+                            paletteIds.put(state, id);
+                            palette.add(state);
+                        }
+                        indices[count++] = id;
+                    }
+                }
+            }
+
+            SimpleBitStorage storage = null;
+            if (palette.size() > 1) {
+                storage = new SimpleBitStorage(Mth.ceillog2(palette.size()), count);
+                for (int i = 0; i < count; i++) {
+                    storage.set(i, indices[i]);
+                }
+            }
+
+            sections.put(sectionPos, new Section(bounds, palette.toArray(new BlockState[0]), storage));
+        });
+
+        box.forEachChunk(chunkPos -> {
+            for (BlockPos pos : level.getChunk(ChunkPos.getX(chunkPos), ChunkPos.getZ(chunkPos)).getBlockEntitiesPos()) {
+                if (box.contains(pos)) {
+                    BlockEntity blockEntity = level.getBlockEntity(pos);
+                    if (blockEntity != null) {
+                        blockEntities.put(pos.asLong(), blockEntity.saveWithoutMetadata());
+                    }
+                }
+            }
+        });
+
+        return new RegionSnapshot(box, sections, blockEntities);
+    }
+
+    public BlockBox box() {
+        return this.box;
+    }
+
+    @Nullable
+    public BlockState getState(int x, int y, int z) {
+        Section section = this.sections.get(SectionPos.asLong(
+                SectionPos.blockToSectionCoord(x),
+                SectionPos.blockToSectionCoord(y),
+                SectionPos.blockToSectionCoord(z)
+        ));
+        if (section == null || !section.contains(x, y, z)) {
+            return null;
+        }
+        return section.get(x, y, z);
+    }
+
+    @Nullable
+    public BlockState getState(BlockPos pos) {
+        return this.getState(pos.getX(), pos.getY(), pos.getZ());
+    }
+
+    @Nullable
+    public CompoundTag getBlockEntity(BlockPos pos) {
+        return this.blockEntities.get(pos.asLong());
+    }
+
+    public void restore(ServerLevel level, int flags) {
+        BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+        for (Section section : this.sections.values()) {
+            section.restore(level, pos, flags);
+        }
+        this.restoreBlockEntities(level);
+    }
+
+    public boolean restoreSection(ServerLevel level, long sectionPos, int flags) {
+        Section section = this.sections.get(sectionPos);
+        if (section == null) {
+            return false;
+        }
+        BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+        section.restore(level, pos, flags);
+
+        Long2ObjectMap<CompoundTag> blockEntities = this.blockEntitiesBySection.get(sectionPos);
+        if (blockEntities != null) {
+            for (Long2ObjectMap.Entry<CompoundTag> entry : blockEntities.long2ObjectEntrySet()) {
+                restoreBlockEntity(level, pos.set(entry.getLongKey()), entry.getValue());
+            }
+        }
+        return true;
+    }
+
+    public long[] sections() {
+        return this.sections.keySet().toLongArray();
+    }
+
+    public boolean restore(ServerLevel level, BlockPos pos, int flags) {
+        BlockState state = this.getState(pos);
+        if (state == null) {
+            return false;
+        }
+        level.setBlock(pos, state, flags);
+
+        CompoundTag blockEntityTag = this.blockEntities.get(pos.asLong());
+        if (blockEntityTag != null) {
+            restoreBlockEntity(level, pos, blockEntityTag);
+        }
+        return true;
+    }
+
+    public void restoreBlockEntities(ServerLevel level) {
+        BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+        for (Long2ObjectMap.Entry<CompoundTag> entry : this.blockEntities.long2ObjectEntrySet()) {
+            restoreBlockEntity(level, pos.set(entry.getLongKey()), entry.getValue());
+        }
+    }
+
+    // Restores block states in section order through a RegionJobScheduler; block entities must be restored separately once the job completes
+    public RegionOperation restoreOperation(int flags) {
+        return (level, pos) -> {
+            BlockState state = this.getState(pos);
+            if (state != null) {
+                level.setBlock(pos, state, flags);
+            }
+        };
+    }
+
+    private static void restoreBlockEntity(ServerLevel level, BlockPos pos, CompoundTag tag) {
+        BlockEntity blockEntity = level.getBlockEntity(pos);
+        if (blockEntity != null) {
+            blockEntity.load(tag.copy());
+            blockEntity.setChanged();
+            // The block state is often unchanged, in which case setBlock sent nothing and clients would keep the edited block entity
+            BlockState state = blockEntity.getBlockState();
+            level.sendBlockUpdated(pos, state, state, Block.UPDATE_CLIENTS);
+        }
+    }
+
+    public long estimateSizeInBytes() {
+        long size = 0;
+        for (Section section : this.sections.values()) {
+            size += 32 + section.palette.length * 4L;
+            if (section.storage != null) {
+                size += section.storage.getRaw().length * 8L;
+            }
+        }
+        return size;
+    }
+
+    public void save(Path path) throws IOException {
+        // Block states are written once into a global palette so that sections only store raw ids and packed longs
+        Reference2IntMap<BlockState> globalIds = new Reference2IntOpenHashMap<>();
+        globalIds.defaultReturnValue(-1);
+        List<BlockState> globalPalette = new ArrayList<>();
+
+        long sectionBytes = 0;
+        for (Section section : this.sections.values()) {
+            for (BlockState state : section.palette) {
+                if (globalIds.getInt(state) == -1) {
+                    globalIds.put(state, globalPalette.size());
+                    globalPalette.add(state);
+                }
+            }
+            sectionBytes += 8 + 6 * 4 + 4 + section.palette.length * 4L + 4;
+            if (section.storage != null) {
+                sectionBytes += section.storage.getRaw().length * 8L;
+            }
+        }
+
+        byte[] paletteBytes = encodePalette(globalPalette);
+        byte[] blockEntityBytes = this.encodeBlockEntities();
+
+        long size = 4 + 4 + 6 * 4 + 4 + paletteBytes.length + 4 + sectionBytes + 4 + blockEntityBytes.length;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(FILE_MAGIC);
+            buffer.putInt(FILE_VERSION);
+            for (int bound : this.box.toIntArray()) {
+                buffer.putInt(bound);
+            }
+
+            buffer.putInt(paletteBytes.length);
+            buffer.put(paletteBytes);
+
+            buffer.putInt(this.sections.size());
+            for (Long2ObjectMap.Entry<Section> entry : this.sections.long2ObjectEntrySet()) {
+                Section section = entry.getValue();
+                buffer.putLong(entry.getLongKey());
+                buffer.putInt(section.minX).putInt(section.minY).putInt(section.minZ);
+                buffer.putInt(section.maxX).putInt(section.maxY).putInt(section.maxZ);
+
+                buffer.putInt(section.palette.length);
+                for (BlockState state : section.palette) {
+                    buffer.putInt(globalIds.getInt(state));
+                }
+
+                if (section.storage != null) {
+                    long[] data = section.storage.getRaw();
+                    buffer.putInt(data.length);
+                    buffer.asLongBuffer().put(data);
+                    buffer.position(buffer.position() + data.length * Long.BYTES);
+                } else {
+                    buffer.putInt(0);
+                }
+            }
+
+            buffer.putInt(blockEntityBytes.length);
+            buffer.put(blockEntityBytes);
+
+            buffer.force();
+        }
+    }
+
+    public static RegionSnapshot load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != FILE_MAGIC) {
+                throw new IOException("Not a region snapshot: " + path);
+            }
+            int version = buffer.getInt();
+            if (version != FILE_VERSION) {
+                throw new IOException("Unsupported region snapshot version " + version + " in " + path);
+            }
+
+            int[] bounds = new int[6];
+            for (int i = 0; i < bounds.length; i++) {
+                bounds[i] = buffer.getInt();
+            }
+            BlockBox box = BlockBox.fromIntArray(bounds);
+
+            byte[] paletteBytes = new byte[buffer.getInt()];
+            buffer.get(paletteBytes);
+            BlockState[] globalPalette = decodePalette(paletteBytes);
+
+            int sectionCount = buffer.getInt();
+            Long2ObjectMap<Section> sections = new Long2ObjectLinkedOpenHashMap<>(sectionCount);
+            MutableBlockBox sectionBounds = new MutableBlockBox();
+            for (int i = 0; i < sectionCount; i++) {
+                long sectionPos = buffer.getLong();
+                sectionBounds.set(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt());
+
+                BlockState[] palette = new BlockState[buffer.getInt()];
+                for (int j = 0; j < palette.length; j++) {
+                    palette[j] = globalPalette[buffer.getInt()];
+                }
+
+                SimpleBitStorage storage = null;
+                int dataLength = buffer.getInt();
+                if (dataLength > 0) {
+                    long[] data = new long[dataLength];
+                    buffer.asLongBuffer().get(data);
+                    buffer.position(buffer.position() + dataLength * Long.BYTES);
+                    storage = new SimpleBitStorage(Mth.ceillog2(palette.length), (int) sectionBounds.volume(), data);
+                }
+
+                sections.put(sectionPos, new Section(sectionBounds, palette, storage));
+            }
+
+            byte[] blockEntityBytes = new byte[buffer.getInt()];
+            buffer.get(blockEntityBytes);
+
+            return new RegionSnapshot(box, sections, decodeBlockEntities(blockEntityBytes));
+        }
+    }
+
+    private static byte[] encodePalette(List<BlockState> palette) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeInt(palette.size());
+            for (BlockState state : palette) {
+                NbtIo.write(NbtUtils.writeBlockState(state), output);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static BlockState[] decodePalette(byte[] bytes) throws IOException {
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            BlockState[] palette = new BlockState[input.readInt()];
+            for (int i = 0; i < palette.length; i++) {
+                palette[i] = NbtUtils.readBlockState(BuiltInRegistries.BLOCK.asLookup(), NbtIo.read(input, NbtAccounter.UNLIMITED));
+            }
+            return palette;
+        }
+    }
+
+    private byte[] encodeBlockEntities() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeInt(this.blockEntities.size());
+            for (Long2ObjectMap.Entry<CompoundTag> entry : this.blockEntities.long2ObjectEntrySet()) {
+                output.writeLong(entry.getLongKey());
+                NbtIo.write(entry.getValue(), output);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Long2ObjectMap<CompoundTag> decodeBlockEntities(byte[] bytes) throws IOException {
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            int count = input.readInt();
+            Long2ObjectMap<CompoundTag> blockEntities = new Long2ObjectOpenHashMap<>(count);
+            for (int i = 0; i < count; i++) {
+                long pos = input.readLong();
+                blockEntities.put(pos, NbtIo.read(input, NbtAccounter.UNLIMITED));
+            }
+            return blockEntities;
+        }
+    }
+
+    private static final class Section {
+        private final int minX;
+        private final int minY;
+        private final int minZ;
+        private final int maxX;
+        private final int maxY;
+        private final int maxZ;
+        private final BlockState[] palette;
+        @Nullable
+        private final SimpleBitStorage storage;
+
+        private Section(MutableBlockBox bounds, BlockState[] palette, @Nullable SimpleBitStorage storage) {
+            this.minX = bounds.minX();
+            this.minY = bounds.minY();
+            this.minZ = bounds.minZ();
+            this.maxX = bounds.maxX();
+            this.maxY = bounds.maxY();
+            this.maxZ = bounds.maxZ();
+            this.palette = palette;
+            this.storage = storage;
+        }
+
+        private boolean contains(int x, int y, int z) {
+            return x >= this.minX && y >= this.minY && z >= this.minZ
+                    && x <= this.maxX && y <= this.maxY && z <= this.maxZ;
+        }
+
+        private BlockState get(int x, int y, int z) {
+            if (this.storage == null) {
+                return this.palette[0];
+            }
+            int sizeX = this.maxX - this.minX + 1;
+            int sizeZ = this.maxZ - this.minZ + 1;
+            int index = ((y - this.minY) * sizeZ + (z - this.minZ)) * sizeX + (x - this.minX);
+            return this.palette[this.storage.get(index)];
+        }
+
+        private void restore(ServerLevel level, BlockPos.MutableBlockPos pos, int flags) {
+            int index = 0;
+            for (int y = this.minY; y <= this.maxY; y++) {
+                for (int z = this.minZ; z <= this.maxZ; z++) {
+                    for (int x = this.minX; x <= this.maxX; x++) {
+                        BlockState state = this.storage != null ? this.palette[this.storage.get(index)] : this.palette[0];
+                        level.setBlock(pos.set(x, y, z), state, flags);
+                        index++;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.lovetropics.lib.world;
+
+import com.lovetropics.lib.BlockBox;
+import com.lovetropics.lib.MutableBlockBox;
+import net.minecraft.core.BlockPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.world.level.LevelReader;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.ChunkAccess;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+
+public final class SectionScanner {
+    private SectionScanner() {
+    }
+
+    // Visits every block in the box that lies in a section with any non-air blocks
+    public static void forEachBlock(LevelReader level, BlockBox box, BlockVisitor visitor) {
+        BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+        forEachSection(level, box, (chunk, section, bounds) -> {
+            if (section.hasOnlyAir()) {
+                return;
+            }
+
+            for (int y = bounds.minY(); y <= bounds.maxY(); y++) {
+                for (int z = bounds.minZ(); z <= bounds.maxZ(); z++) {
+                    for (int x = bounds.minX(); x <= bounds.maxX(); x++) {
+                        int localX = SectionPos.sectionRelative(x);
+                        int localY = SectionPos.sectionRelative(y);
+                        int localZ = SectionPos.sectionRelative(z);
+                        BlockState state = section.getBlockState(localX, localY, localZ);
+                        visitor.accept(section, sectionIndex(localX, localY, localZ), pos.set(x, y, z), state);
+                    }
+                }
+            }
+        });
+    }
+
+    // Resolves each chunk once, and hands each section overlapping the box along with the part of the box inside it
+    public static void forEachSection(LevelReader level, BlockBox box, SectionVisitor visitor) {
+        BlockBox clipped = box.clipToHeight(level);
+        if (clipped == null) {
+            return;
+        }
+
+        int minSectionX = SectionPos.blockToSectionCoord(clipped.minX());
+        int minSectionY = SectionPos.blockToSectionCoord(clipped.minY());
+        int minSectionZ = SectionPos.blockToSectionCoord(clipped.minZ());
+        int maxSectionX = SectionPos.blockToSectionCoord(clipped.maxX());
+        int maxSectionY = SectionPos.blockToSectionCoord(clipped.maxY());
+        int maxSectionZ = SectionPos.blockToSectionCoord(clipped.maxZ());
+
+        MutableBlockBox bounds = new MutableBlockBox();
+
+        for (int sectionZ = minSectionZ; sectionZ <= maxSectionZ; sectionZ++) {
+            for (int sectionX = minSectionX; sectionX <= maxSectionX; sectionX++) {
+                ChunkAccess chunk = level.getChunk(sectionX, sectionZ);
+                for (int sectionY = minSectionY; sectionY <= maxSectionY; sectionY++) {
+                    LevelChunkSection section = chunk.getSection(chunk.getSectionIndexFromSectionY(sectionY));
+                    bounds.set(
+                            SectionPos.sectionToBlockCoord(sectionX), SectionPos.sectionToBlockCoord(sectionY), SectionPos.sectionToBlockCoord(sectionZ),
+                            SectionPos.sectionToBlockCoord(sectionX, SectionPos.SECTION_MAX_INDEX), SectionPos.sectionToBlockCoord(sectionY, SectionPos.SECTION_MAX_INDEX), SectionPos.sectionToBlockCoord(sectionZ, SectionPos.SECTION_MAX_INDEX)
+                    );
+                    bounds.intersect(clipped);
+                    visitor.accept(chunk, section, bounds);
+                }
+            }
+        }
+    }
+
+    // Matches the index used by the section's PalettedContainer
+    public static int sectionIndex(int localX, int localY, int localZ) {
+        return (localY << 8) | (localZ << 4) | localX;
+    }
+
+    @FunctionalInterface
+    public interface BlockVisitor {
+        void accept(LevelChunkSection section, int index, BlockPos.MutableBlockPos pos, BlockState state);
+    }
+
+    @FunctionalInterface
+    public interface SectionVisitor {
+        void accept(ChunkAccess chunk, LevelChunkSection section, MutableBlockBox bounds);
+    }
+}